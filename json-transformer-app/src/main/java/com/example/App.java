@@ -1,60 +1,108 @@
 package com.example;
 
+import com.example.core.AggregateFunction;
+import com.example.core.DataModelFactory;
+import com.example.core.JsonElementWrapper;
+import com.example.core.NdjsonTransformer.RecordModelFactory;
+import com.example.core.SourceAdapter;
+import com.example.core.SparseModelFactory;
+import com.example.core.TransformEngine;
+import com.example.core.TransformOptions;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
-import freemarker.template.TemplateException;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
-public class App {
+// Plain JSON sources, as a TransformEngine plugin named "json"
+public class App implements SourceAdapter {
+    private final Gson gson = new Gson();
+    private boolean lazyModel;
+    private boolean sparse;
+    private boolean columnar;
+
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.err.println("Usage: java -jar app.jar <template.ftl> <source.json> <target.json>");
-            System.exit(1);
-        }
-
-        String templatePath = args[0];
-        String sourceJsonPath = args[1];
-        String targetJsonPath = args[2];
-
-        try {
-            // Read source JSON
-            String jsonContent = new String(Files.readAllBytes(Paths.get(sourceJsonPath)));
-            Gson gson = new Gson();
-            JsonElement jsonElement = gson.fromJson(jsonContent, JsonElement.class);
-            Map<String, Object> dataModel = gson.fromJson(jsonElement, Map.class);
-
-            // Configure FreeMarker
-            Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
-            File templateFile = new File(templatePath).getAbsoluteFile();
-            File templateDir = templateFile.getParentFile();
-            if (templateDir == null) {
-                templateDir = new File(".").getAbsoluteFile();
-            }
-            cfg.setDirectoryForTemplateLoading(templateDir);
-            cfg.setDefaultEncoding("UTF-8");
+        TransformEngine.main(args, new App());
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public String sourceName() {
+        return "source.json";
+    }
+
+    @Override
+    public String defaultGlob() {
+        return "*.json";
+    }
 
-            // Load template
-            Template template = cfg.getTemplate(templateFile.getName());
+    @Override
+    public String[] optionSpecs() {
+        return new String[] {"--lazy-model", "--sparse", "--columnar"};
+    }
+
+    @Override
+    public void init(TransformOptions options) {
+        lazyModel = options.hasOption("--lazy-model");
+        sparse = options.hasOption("--sparse");
+        columnar = options.hasOption("--columnar");
+        if (sparse && (lazyModel || columnar || options.isServer() || options.isNdjson() || options.isFanOut())) {
+            throw new IllegalArgumentException(
+                    "--sparse cannot be combined with --lazy-model, --columnar, --server, --ndjson or --fan-out");
+        }
+    }
 
-            // Process template
-            StringWriter writer = new StringWriter();
-            template.process(dataModel, writer);
+    @Override
+    public void configure(Configuration cfg) {
+        if (lazyModel || columnar) {
+            cfg.setObjectWrapper(new JsonElementWrapper(columnar));
+        }
+        if (columnar) {
+            AggregateFunction.register(cfg);
+        }
+    }
 
-            // Write output
-            Files.write(Paths.get(targetJsonPath), writer.toString().getBytes());
-            
-            System.out.println("Successfully transformed " + sourceJsonPath + " to " + targetJsonPath);
+    @Override
+    public DataModelFactory modelFactory(Template template) {
+        if (sparse && template != null) {
+            // Read only the fields the template references, skipping the rest of each source
+            try {
+                return new SparseModelFactory(template);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Sparse mode not available, " + e.getMessage() + "; using the full data model");
+            }
+        }
+        if (columnar) {
+            // The lazy model, with arrays of objects loaded into columns for the aggregate functions
+            return content -> JsonElementWrapper.parse(content, true);
+        }
+        if (lazyModel) {
+            // Wrap the parsed tree directly; only the fields a template reads are ever wrapped
+            return JsonElementWrapper::parse;
+        }
+        return content -> createDataModel(gson, content);
+    }
 
-        } catch (IOException | TemplateException e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
+    @Override
+    public RecordModelFactory recordFactory() {
+        if (columnar) {
+            return record -> JsonElementWrapper.wrapDocument(record, true);
         }
+        if (lazyModel) {
+            return JsonElementWrapper::wrapDocument;
+        }
+        return record -> gson.fromJson(record, Map.class);
+    }
+
+    static Map<String, Object> createDataModel(Gson gson, byte[] content) {
+        String jsonContent = new String(content, StandardCharsets.UTF_8);
+        JsonElement jsonElement = gson.fromJson(jsonContent, JsonElement.class);
+        return gson.fromJson(jsonElement, Map.class);
     }
 }
@@ -0,0 +1,103 @@
+package com.example;
+
+import com.example.core.AggregateFunction;
+import com.example.core.JsonElementWrapper;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateSequenceModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+// Aggregations over one department of 100,000 employees. "builtins" is the
+// lazy model (--lazy-model) with FreeMarker built-ins and a #list loop,
+// "columnar" the --columnar model with the aggregate functions. The model is
+// loaded once, so sum, topN and sortBy measure the aggregation alone;
+// loadModel is the parse plus, for columnar, building the columns.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateBenchmark {
+    private static final int EMPLOYEES = 100_000;
+
+    @Param({"builtins", "columnar"})
+    public String style;
+
+    private byte[] source;
+    private TemplateHashModel dataModel;
+    private Template sum;
+    private Template topN;
+    private Template sortBy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TemplateException {
+        source = Fixtures.company(true, 1, EMPLOYEES);
+        boolean columnar = style.equals("columnar");
+        Configuration cfg = Fixtures.configuration("complex-app", true);
+        cfg.setObjectWrapper(new JsonElementWrapper(columnar));
+        String employees = "<#assign e = company.departments[0].employees>";
+        if (columnar) {
+            AggregateFunction.register(cfg);
+            sum = new Template("sum", employees + "${sum(e, \"salary\")}", cfg);
+            topN = new Template("topN", employees + "<#list topN(e, \"salary\", 10) as x>${x.id} </#list>", cfg);
+            sortBy = new Template("sortBy", employees + "${sortBy(e, \"salary\")?last.id}", cfg);
+        } else {
+            sum = new Template("sum", employees
+                    + "<#assign total = 0><#list e as x><#assign total += x.salary></#list>${total}", cfg);
+            topN = new Template("topN", employees
+                    + "<#list e?sort_by(\"salary\")?reverse[0..9] as x>${x.id} </#list>", cfg);
+            sortBy = new Template("sortBy", employees + "${e?sort_by(\"salary\")?last.id}", cfg);
+        }
+        dataModel = JsonElementWrapper.parse(source, columnar);
+        render(sum);
+    }
+
+    private String render(Template template) throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(dataModel, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public TemplateModel loadModel() throws IOException, TemplateModelException {
+        TemplateHashModel model = JsonElementWrapper.parse(source, style.equals("columnar"));
+        TemplateHashModel company = (TemplateHashModel) model.get("company");
+        TemplateSequenceModel departments = (TemplateSequenceModel) company.get("departments");
+        return ((TemplateHashModel) departments.get(0)).get("employees");
+    }
+
+    @Benchmark
+    public String sum() throws IOException, TemplateException {
+        return render(sum);
+    }
+
+    @Benchmark
+    public String topN() throws IOException, TemplateException {
+        return render(topN);
+    }
+
+    @Benchmark
+    public String sortBy() throws IOException, TemplateException {
+        return render(sortBy);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example;
+
+import freemarker.template.SimpleNumber;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// BinaryApp: the sample source rendered with the read* functions ("functions")
+// or the declarative schema ("schema"), a single field read through each, and
+// a file of fixed-size records rendered record by record (score per record).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryTransformBenchmark {
+    private static final int RECORDS = 10_000;
+
+    @Param({"functions", "schema"})
+    public String access;
+
+    private ByteBuffer sample;
+    private BinarySchema schema;
+    private Template template;
+    private BinaryReadFunction readFloat;
+    private List<TemplateModel> temperatureOffset;
+    private BinaryRecords records;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (access.equals("schema")) {
+            Path schemaFile = Files.createTempFile("schema", ".json");
+            try {
+                Files.write(schemaFile, Fixtures.load("binary-app", "schema.json"));
+                schema = BinarySchema.load(schemaFile);
+            } finally {
+                Files.deleteIfExists(schemaFile);
+            }
+        }
+        template = Fixtures.configuration("binary-app", true)
+                .getTemplate(schema != null ? "template-schema.ftl" : "template.ftl");
+        sample = Fixtures.binaryRecords(1);
+        readFloat = new BinaryReadFunction(BinaryReadFunction.Kind.FLOAT, sample);
+        temperatureOffset = Collections.singletonList(new SimpleNumber(28));
+        records = BinaryRecords.fixedSize(new ByteBuffer[] {Fixtures.binaryRecords(RECORDS)}, sample.capacity(), schema);
+    }
+
+    @Benchmark
+    public Map<String, Object> buildModel() {
+        return BinaryApp.createDataModel(sample, schema);
+    }
+
+    @Benchmark
+    public String transform() throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(BinaryApp.createDataModel(sample, schema), writer);
+        return writer.toString();
+    }
+
+    // One field read as a template would do it, including the per-document model
+    @Benchmark
+    public Object readField() throws TemplateModelException {
+        if (schema != null) {
+            return schema.decode(sample).get("temperature");
+        }
+        return readFloat.exec(temperatureOffset);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void transformRecords(Blackhole blackhole) throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        for (int i = 0; i < RECORDS; i++) {
+            writer.getBuffer().setLength(0);
+            template.process(records.recordModel(i), writer);
+            blackhole.consume(writer.getBuffer().length());
+        }
+    }
+}
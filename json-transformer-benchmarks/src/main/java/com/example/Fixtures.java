@@ -0,0 +1,105 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import freemarker.template.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Benchmark inputs: the sample files of each app (packaged under /fixtures)
+// and larger documents generated from them with the same shape.
+final class Fixtures {
+    private static final Gson GSON = new Gson();
+
+    private Fixtures() {
+    }
+
+    static byte[] load(String app, String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + app + "/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + app + "/" + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same settings as the apps, with templates read from the packaged fixtures
+    static Configuration configuration(String app, boolean computerNumbers) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setClassForTemplateLoading(Fixtures.class, "/fixtures/" + app);
+        cfg.setDefaultEncoding("UTF-8");
+        if (computerNumbers) {
+            cfg.setNumberFormat("computer");
+        }
+        return cfg;
+    }
+
+    // The complex-app company with the simple app's top-level fields merged in, so
+    // both templates render the same document; large repeats every department and
+    // employee until the company has the requested number of departments
+    static byte[] company(boolean large, int departments, int employeesPerDepartment) {
+        JsonObject root = parse(load("complex-app", "source.json"));
+        JsonObject simple = parse(load("app", "source.json"));
+        simple.entrySet().forEach(e -> root.add(e.getKey(), e.getValue()));
+        if (large) {
+            JsonObject company = root.getAsJsonObject("company");
+            JsonArray samples = company.getAsJsonArray("departments");
+            JsonArray generated = new JsonArray();
+            int id = 1;
+            for (int d = 0; d < departments; d++) {
+                JsonObject department = samples.get(d % samples.size()).getAsJsonObject().deepCopy();
+                department.addProperty("id", department.get("id").getAsString() + "-" + d);
+                JsonArray sampleEmployees = department.getAsJsonArray("employees");
+                JsonArray employees = new JsonArray();
+                for (int e = 0; e < employeesPerDepartment; e++) {
+                    JsonObject employee = sampleEmployees.get(e % sampleEmployees.size()).getAsJsonObject().deepCopy();
+                    employee.addProperty("id", id++);
+                    employees.add(employee);
+                }
+                department.add("employees", employees);
+                generated.add(department);
+            }
+            company.add("departments", generated);
+        }
+        return GSON.toJson(root).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The jsonpath-app device, optionally with the sensor list repeated to the given length
+    static byte[] device(boolean large, int sensors) {
+        JsonObject root = parse(load("jsonpath-app", "source.json"));
+        if (large) {
+            JsonArray samples = root.getAsJsonArray("sensors");
+            JsonArray generated = new JsonArray();
+            for (int i = 0; i < sensors; i++) {
+                JsonObject sensor = samples.get(i % samples.size()).getAsJsonObject().deepCopy();
+                sensor.addProperty("location", "room-" + i);
+                generated.add(sensor);
+            }
+            root.add("sensors", generated);
+        }
+        return GSON.toJson(root).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The 42-byte binary-app sample repeated as fixed-size records
+    static ByteBuffer binaryRecords(int count) {
+        byte[] sample = load("binary-app", "source.bin");
+        ByteBuffer buffer = ByteBuffer.allocate(sample.length * count).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            buffer.put(sample);
+        }
+        return buffer.clear();
+    }
+
+    private static JsonObject parse(byte[] json) {
+        return JsonParser.parseString(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+}
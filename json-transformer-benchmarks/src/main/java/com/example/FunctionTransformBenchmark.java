@@ -0,0 +1,73 @@
+package com.example;
+
+import com.example.FunctionApp.CacheLookupFunction;
+import com.example.FunctionApp.FormatFunction;
+import com.example.FunctionApp.UnitConversionFunction;
+import com.example.core.Metrics;
+import com.google.gson.Gson;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// FunctionApp: data model build and render with the lookup, convert and
+// format functions called from the template; metrics=true times every
+// function call, as --metrics does.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionTransformBenchmark {
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private final Gson gson = new Gson();
+    private final CacheLookupFunction lookup = new CacheLookupFunction();
+    private final UnitConversionFunction convert = new UnitConversionFunction();
+    private final FormatFunction format = new FormatFunction();
+    private byte[] source;
+    private Template template;
+    private Map<String, Object> model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (metrics) {
+            Metrics.enable();
+        }
+        source = Fixtures.load("function-app", "source.json");
+        template = Fixtures.configuration("function-app", true).getTemplate("template.ftl");
+        model = buildModel();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> buildModel() {
+        return FunctionApp.createDataModel(
+                gson.fromJson(new String(source, StandardCharsets.UTF_8), Map.class), lookup, convert, format);
+    }
+
+    @Benchmark
+    public String render() throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(model, writer);
+        return writer.toString();
+    }
+}
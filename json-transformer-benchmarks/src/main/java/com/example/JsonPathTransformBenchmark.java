@@ -0,0 +1,62 @@
+package com.example;
+
+import com.google.gson.Gson;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JsonPathApp: building the model parses the document, rendering evaluates
+// every jsonPath(...) in the template; the transform does both, since the
+// results are memoized per document.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonPathTransformBenchmark {
+    @Param({"small", "large"})
+    public String documentSize;
+
+    @Param({"false", "true"})
+    public boolean nativeModels;
+
+    private final Gson gson = new Gson();
+    private String source;
+    private Template template;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = new String(Fixtures.device(documentSize.equals("large"), 10_000), StandardCharsets.UTF_8);
+        template = Fixtures.configuration("jsonpath-app", false).getTemplate("template.ftl");
+    }
+
+    @Benchmark
+    public Map<String, Object> buildModel() throws IOException {
+        return JsonPathApp.createDataModel(source, gson, nativeModels);
+    }
+
+    @Benchmark
+    public String transform() throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(JsonPathApp.createDataModel(source, gson, nativeModels), writer);
+        return writer.toString();
+    }
+}
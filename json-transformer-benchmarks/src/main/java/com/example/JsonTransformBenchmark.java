@@ -0,0 +1,127 @@
+package com.example;
+
+import com.example.core.CompiledTemplate;
+import com.example.core.JsonElementWrapper;
+import com.example.core.OutputSink;
+import com.example.core.SparseModelFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModelException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// App and complex-app pipeline, one benchmark per stage: JSON parse, data
+// model build, template render into a String and writing that String, then
+// render straight into the file, and the whole transform.
+// "simple" is the json-transformer-app template, "complex" the complex-app one;
+// "map" is the default model, "lazy" and "sparse" the --lazy-model and --sparse
+// ones. "compiled" renders through CompiledTemplate (--compiled). A lazy model keeps
+// its wrappers, so render measures repeated renders of one document and
+// transform is the number to compare between the two.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonTransformBenchmark {
+    @Param({"small", "large"})
+    public String documentSize;
+
+    @Param({"simple", "complex"})
+    public String templateComplexity;
+
+    @Param({"map", "lazy", "sparse"})
+    public String model;
+
+    @Param({"interpreted", "compiled"})
+    public String mode;
+
+    private final Gson gson = new Gson();
+    private byte[] source;
+    private Template template;
+    private SparseModelFactory sparseFactory;
+    private Object dataModel;
+    private String output;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TemplateException {
+        source = Fixtures.company(documentSize.equals("large"), 200, 50);
+        String app = templateComplexity.equals("simple") ? "app" : "complex-app";
+        template = Fixtures.configuration(app, false).getTemplate("template.ftl");
+        sparseFactory = new SparseModelFactory(template);
+        if (mode.equals("compiled")) {
+            template = CompiledTemplate.compile(template);
+        }
+        dataModel = buildModel();
+        output = render();
+        target = Files.createTempFile("benchmark", ".json");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public JsonElement parse() {
+        return JsonParser.parseString(new String(source, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Object buildModel() throws IOException, TemplateModelException {
+        switch (model) {
+            case "lazy":
+                return JsonElementWrapper.parse(source);
+            case "sparse":
+                return sparseFactory.create(source);
+            default:
+                return App.createDataModel(gson, source);
+        }
+    }
+
+    @Benchmark
+    public String render() throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(dataModel, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Path write() throws IOException {
+        return Files.write(target, output.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Render and write in one step, as the apps do: encoded straight into the file
+    @Benchmark
+    public void renderToFile() throws IOException, TemplateException {
+        OutputSink.toFile(target, false).render(template, dataModel);
+    }
+
+    @Benchmark
+    public void transform() throws IOException, TemplateException {
+        OutputSink.toFile(target, false).render(template, buildModel());
+    }
+}
@@ -0,0 +1,44 @@
+#!/bin/bash
+# Startup time of the transformer apps: mean wall time of a single transform of
+# each module's sample fixture, which for these small inputs is almost all JVM
+# startup, class loading and warm-up. Three ways of starting are compared:
+#   java -jar    plain java -jar
+#   cds          java -XX:SharedArchiveFile=<module>.jsa -jar
+#   launcher     ../transform.sh (archive, C1 only, serial GC)
+# Build first, including the archives: mvn -Pcds verify
+# Usage: json-transformer-benchmarks/startup.sh [runs]   (default 10 runs each)
+
+root="$(cd "$(dirname "$0")/.." && pwd)"
+runs=${1:-10}
+out="$(mktemp -d)"
+trap 'rm -rf "$out"' EXIT
+
+# Mean milliseconds of $runs runs of the given command
+measure() {
+    local start end
+    start=$(date +%s%N)
+    for ((i = 0; i < runs; i++)); do
+        "$@" > /dev/null 2>&1 || { echo "failed: $*" >&2; return 1; }
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / runs / 1000000 ))
+}
+
+printf "%-14s %10s %10s %10s\n" "module" "java -jar" "cds" "launcher"
+for app in app function-app jsonpath-app binary-app; do
+    module="json-transformer-$app"
+    source="$root/$module/source.json"
+    if [ "$app" = binary-app ]; then
+        source="$root/$module/source.bin"
+    fi
+    jar="$root/$module/target/$module-1.0-SNAPSHOT.jar"
+    args=("$root/$module/template.ftl" "$source" "$out/$app.json")
+
+    plain=$(measure java -jar "$jar" "${args[@]}")
+    cds="-"
+    if [ -f "$root/$module/target/$module.jsa" ]; then
+        cds=$(measure java -XX:SharedArchiveFile="$root/$module/target/$module.jsa" -jar "$jar" "${args[@]}")
+    fi
+    launcher=$(measure "$root/transform.sh" "$app" "${args[@]}")
+    printf "%-14s %8s ms %7s ms %7s ms\n" "$app" "$plain" "$cds" "$launcher"
+done
@@ -1,5 +1,14 @@
 package com.example;
 
+import com.example.core.DataModelFactory;
+import com.example.core.LineTrackingWriter;
+import com.example.core.Metrics;
+import com.example.core.OutputSink;
+import com.example.core.SourceAdapter;
+import com.example.core.TemplateFieldScanner;
+import com.example.core.TransformEngine;
+import com.example.core.TransformManifest;
+import com.example.core.TransformOptions;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
@@ -7,362 +16,238 @@ import freemarker.template.TemplateException;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
-public class BinaryApp {
-    public static void main(String[] args) {
-        if (args.length != 3) {
-            System.err.println("Usage: java -jar app.jar <template.ftl> <source.bin> <target.json>");
-            System.exit(1);
-        }
-
-        String templatePath = args[0];
-        String sourceBinaryPath = args[1];
-        String targetJsonPath = args[2];
+// Binary sources read with read*(...) functions or a schema, as a TransformEngine plugin named "binary"
+public class BinaryApp implements SourceAdapter {
+    private static final Set<BinaryReadFunction.Kind> ALL_READ_FUNCTIONS =
+            Collections.unmodifiableSet(EnumSet.allOf(BinaryReadFunction.Kind.class));
+    private BinaryModelFactory modelFactory;
+    private boolean perRecord;
 
-        try {
-            // Read binary file
-            byte[] binaryData = Files.readAllBytes(Paths.get(sourceBinaryPath));
-
-            // Configure FreeMarker
-            Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
-            File templateFile = new File(templatePath).getAbsoluteFile();
-            File templateDir = templateFile.getParentFile();
-            if (templateDir == null) {
-                templateDir = new File(".").getAbsoluteFile();
-            }
-            cfg.setDirectoryForTemplateLoading(templateDir);
-            cfg.setDefaultEncoding("UTF-8");
-            cfg.setNumberFormat("computer");
+    public static void main(String[] args) {
+        TransformEngine.main(args, new BinaryApp());
+    }
 
-            // Create data model with binary extraction functions
-            Map<String, Object> dataModel = new HashMap<>();
-            dataModel.put("binary", binaryData);
-            dataModel.put("readInt", new ReadIntFunction(binaryData));
-            dataModel.put("readLong", new ReadLongFunction(binaryData));
-            dataModel.put("readFloat", new ReadFloatFunction(binaryData));
-            dataModel.put("readByte", new ReadByteFunction(binaryData));
-            dataModel.put("readBit", new ReadBitFunction(binaryData));
-            dataModel.put("readString", new ReadStringFunction(binaryData));
-            dataModel.put("readShort", new ReadShortFunction(binaryData));
-            dataModel.put("readDouble", new ReadDoubleFunction(binaryData));
-            dataModel.put("readUnsignedInt", new ReadUnsignedIntFunction(binaryData));
-            dataModel.put("readIntBE", new ReadIntBEFunction(binaryData));
-            dataModel.put("readLongBE", new ReadLongBEFunction(binaryData));
-            dataModel.put("readFloatBE", new ReadFloatBEFunction(binaryData));
-            dataModel.put("readBytes", new ReadBytesFunction(binaryData));
-            dataModel.put("readHex", new ReadHexFunction(binaryData));
-            dataModel.put("readBoolean", new ReadBooleanFunction(binaryData));
+    @Override
+    public String name() {
+        return "binary";
+    }
 
-            // Load and process template
-            Template template = cfg.getTemplate(templateFile.getName());
-            StringWriter writer = new StringWriter();
-            template.process(dataModel, writer);
+    @Override
+    public String sourceName() {
+        return "source.bin";
+    }
 
-            // Write output
-            Files.write(Paths.get(targetJsonPath), writer.toString().getBytes());
-            
-            System.out.println("Successfully transformed " + sourceBinaryPath + " to " + targetJsonPath);
+    @Override
+    public String defaultGlob() {
+        return "*.bin";
+    }
 
-        } catch (IOException | TemplateException e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
-        }
+    @Override
+    public String[] optionSpecs() {
+        return new String[] {"--mmap", "--record-size <bytes>", "--length-prefix <1|2|4>", "--per-record",
+                "--schema <schema.json>"};
     }
 
-    // Read int32 from binary at offset
-    static class ReadIntFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadIntFunction(byte[] data) {
-            this.data = data;
+    @Override
+    public void init(TransformOptions options) throws IOException {
+        int recordSize = Integer.parseInt(options.getOption("--record-size", "0"));
+        int lengthPrefix = Integer.parseInt(options.getOption("--length-prefix", "0"));
+        if (recordSize < 0 || (lengthPrefix != 0 && lengthPrefix != 1 && lengthPrefix != 2 && lengthPrefix != 4)) {
+            throw new IllegalArgumentException("--record-size must be positive and --length-prefix 1, 2 or 4");
         }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readInt requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (recordSize > 0 && lengthPrefix > 0) {
+            throw new IllegalArgumentException("--record-size and --length-prefix cannot be combined");
         }
-    }
-    
-    // Read int64 from binary at offset
-    static class ReadLongFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadLongFunction(byte[] data) {
-            this.data = data;
+        perRecord = options.hasOption("--per-record");
+        if (perRecord && recordSize == 0 && lengthPrefix == 0) {
+            throw new IllegalArgumentException("--per-record requires --record-size or --length-prefix");
         }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readLong requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        if (perRecord && options.isFanOut()) {
+            throw new IllegalArgumentException("--per-record cannot be combined with --fan-out");
         }
+        BinarySchema schema = options.hasOption("--schema")
+                ? BinarySchema.load(Paths.get(options.getOption("--schema", null))) : null;
+        modelFactory = new BinaryModelFactory(options.hasOption("--mmap"), recordSize, lengthPrefix, schema);
     }
-    
-    // Read float32 from binary at offset
-    static class ReadFloatFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadFloatFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readFloat requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        }
+
+    @Override
+    public void configure(Configuration cfg) {
+        cfg.setNumberFormat("computer");
     }
-    
-    // Read unsigned byte from binary at offset
-    static class ReadByteFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadByteFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readByte requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return data[offset] & 0xFF;
-        }
+
+    // The record layout comes from the --schema file
+    @Override
+    public String fingerprint(TransformOptions options) throws IOException {
+        String fingerprint = SourceAdapter.super.fingerprint(options);
+        return options.hasOption("--schema")
+                ? fingerprint + ' ' + TransformManifest.hash(Paths.get(options.getOption("--schema", null))) : fingerprint;
     }
-    
-    // Read bit from byte at offset
-    static class ReadBitFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadBitFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 2) {
-                throw new freemarker.template.TemplateModelException("readBit requires 2 arguments: offset, bitPosition");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            int bitPos = Integer.parseInt(arguments.get(1).toString());
-            return ((data[offset] & 0xFF) & (1 << bitPos)) != 0;
-        }
+
+    @Override
+    public DataModelFactory modelFactory(Template template) {
+        return modelFactory.forTemplate(template);
     }
-    
-    // Read string from binary at offset
-    static class ReadStringFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadStringFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() < 2 || arguments.size() > 3) {
-                throw new freemarker.template.TemplateModelException("readString requires 2-3 arguments: offset, length, [encoding]");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            int length = Integer.parseInt(arguments.get(1).toString());
-            String encoding = arguments.size() == 3 ? arguments.get(2).toString() : "UTF-8";
-            
-            try {
-                return new String(data, offset, length, encoding).trim();
-            } catch (Exception e) {
-                throw new freemarker.template.TemplateModelException("Error reading string: " + e.getMessage(), e);
-            }
+
+    @Override
+    public String transform(Template template, DataModelFactory modelFactory, Path source, Path target,
+                            OutputSink sink) throws IOException, TemplateException {
+        if (!perRecord) {
+            return SourceAdapter.super.transform(template, modelFactory, source, target, sink);
         }
+        int records = transformRecords(template, this.modelFactory.records(source), sink);
+        return "Transformed " + records + " records from " + source + " to " + target;
     }
-    
-    // Read int16 from binary at offset
-    static class ReadShortFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadShortFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readShort requires 1 argument: offset");
+
+    // Render the template once per record, one output per line, with read* offsets relative to the record
+    static int transformRecords(Template template, BinaryRecords records, OutputSink sink) throws IOException, TemplateException {
+        try (OutputSink.Output output = sink.open()) {
+            LineTrackingWriter lineOut = new LineTrackingWriter(output.writer());
+            for (int i = 0; i < records.size(); i++) {
+                lineOut.reset();
+                try (Metrics.Span span = Metrics.start("render")) {
+                    template.process(records.recordModel(i), lineOut);
+                }
+                lineOut.endLine();
             }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 2).order(ByteOrder.LITTLE_ENDIAN).getShort();
+            output.commit();
         }
+        return records.size();
     }
-    
-    // Read float64 from binary at offset
-    static class ReadDoubleFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadDoubleFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readDouble requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 8).order(ByteOrder.LITTLE_ENDIAN).getDouble();
+
+    // Builds the data model from a heap copy of the source, or with mapped set,
+    // from a read-only memory mapping of the source file. With a record size or
+    // length prefix the source is also exposed as a "records" sequence, and with
+    // a schema the decoded source (or record) is available as "rec". Only the
+    // top-level read* functions the template uses are added.
+    static class BinaryModelFactory implements DataModelFactory {
+        private final boolean mapped;
+        private final int recordSize;
+        private final int lengthPrefix;
+        private final BinarySchema schema;
+        private final Set<BinaryReadFunction.Kind> readFunctions;
+
+        BinaryModelFactory(boolean mapped, int recordSize, int lengthPrefix, BinarySchema schema) {
+            this(mapped, recordSize, lengthPrefix, schema, ALL_READ_FUNCTIONS);
         }
-    }
-    
-    // Read unsigned int32 from binary at offset
-    static class ReadUnsignedIntFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadUnsignedIntFunction(byte[] data) {
-            this.data = data;
+
+        private BinaryModelFactory(boolean mapped, int recordSize, int lengthPrefix, BinarySchema schema,
+                                   Set<BinaryReadFunction.Kind> readFunctions) {
+            this.mapped = mapped;
+            this.recordSize = recordSize;
+            this.lengthPrefix = lengthPrefix;
+            this.schema = schema;
+            this.readFunctions = readFunctions;
         }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readUnsignedInt requires 1 argument: offset");
+
+        // This factory with the read* functions a template references; all of them for a null template
+        BinaryModelFactory forTemplate(Template template) {
+            Set<BinaryReadFunction.Kind> used = EnumSet.noneOf(BinaryReadFunction.Kind.class);
+            for (BinaryReadFunction.Kind kind : BinaryReadFunction.Kind.values()) {
+                if (TemplateFieldScanner.references(template, kind.functionName)) {
+                    used.add(kind);
+                }
             }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+            return new BinaryModelFactory(mapped, recordSize, lengthPrefix, schema, used);
         }
-    }
-    
-    // Read int32 big-endian from binary at offset
-    static class ReadIntBEFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadIntBEFunction(byte[] data) {
-            this.data = data;
+
+        boolean hasRecords() {
+            return recordSize > 0 || lengthPrefix > 0;
         }
-        
+
         @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readIntBE requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.BIG_ENDIAN).getInt();
+        public Object create(byte[] content) throws IOException {
+            return createDataModel(new ByteBuffer[] {ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN)});
         }
-    }
-    
-    // Read int64 big-endian from binary at offset
-    static class ReadLongBEFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadLongBEFunction(byte[] data) {
-            this.data = data;
-        }
-        
+
         @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readLongBE requires 1 argument: offset");
+        public Object create(Path source) throws IOException {
+            ByteBuffer[] segments;
+            try (Metrics.Span span = Metrics.start("read")) {
+                segments = load(source);
             }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 8).order(ByteOrder.BIG_ENDIAN).getLong();
-        }
-    }
-    
-    // Read float32 big-endian from binary at offset
-    static class ReadFloatBEFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadFloatBEFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readFloatBE requires 1 argument: offset");
+            try (Metrics.Span span = Metrics.start("parse")) {
+                return createDataModel(segments);
             }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.BIG_ENDIAN).getFloat();
         }
-    }
-    
-    // Read raw bytes as comma-separated integers
-    static class ReadBytesFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadBytesFunction(byte[] data) {
-            this.data = data;
+
+        BinaryRecords records(Path source) throws IOException {
+            return records(load(source));
         }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 2) {
-                throw new freemarker.template.TemplateModelException("readBytes requires 2 arguments: offset, length");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            int length = Integer.parseInt(arguments.get(1).toString());
-            
-            StringBuilder sb = new StringBuilder("[");
-            for (int i = 0; i < length; i++) {
-                if (i > 0) sb.append(", ");
-                sb.append(data[offset + i] & 0xFF);
+
+        private Map<String, Object> createDataModel(ByteBuffer[] segments) throws IOException {
+            // Offsets of the top-level readers are ints, so they need the whole source in one segment
+            Map<String, Object> dataModel = segments.length == 1
+                    ? BinaryApp.createDataModel(segments[0], schema, readFunctions) : new HashMap<>();
+            if (hasRecords()) {
+                BinaryRecords records = records(segments);
+                dataModel.put("records", records);
+                dataModel.put("recordCount", records.size());
             }
-            sb.append("]");
-            return sb.toString();
+            return dataModel;
         }
-    }
-    
-    // Read bytes as hex string
-    static class ReadHexFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadHexFunction(byte[] data) {
-            this.data = data;
-        }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 2) {
-                throw new freemarker.template.TemplateModelException("readHex requires 2 arguments: offset, length");
+
+        private BinaryRecords records(ByteBuffer[] segments) throws IOException {
+            if (recordSize > 0) {
+                return BinaryRecords.fixedSize(segments, recordSize, schema);
             }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            int length = Integer.parseInt(arguments.get(1).toString());
-            
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < length; i++) {
-                sb.append(String.format("%02X", data[offset + i] & 0xFF));
+            return BinaryRecords.lengthPrefixed(segments[0], lengthPrefix, schema);
+        }
+
+        // Whole source on the heap, or mapped in record-aligned segments of up to 2 GB each
+        private ByteBuffer[] load(Path source) throws IOException {
+            if (!mapped) {
+                return new ByteBuffer[] {ByteBuffer.wrap(Files.readAllBytes(source)).order(ByteOrder.LITTLE_ENDIAN)};
+            }
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long segmentSize = recordSize > 0 ? (Integer.MAX_VALUE / recordSize) * (long) recordSize : Integer.MAX_VALUE;
+                if (size > segmentSize && recordSize == 0) {
+                    throw new IOException("Cannot map more than 2 GB as a single source, use --record-size: " + source);
+                }
+                int count = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+                ByteBuffer[] segments = new ByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    long position = i * segmentSize;
+                    // The mapping stays valid after the channel is closed
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+                return segments;
             }
-            return sb.toString();
         }
     }
-    
-    // Read boolean from byte
-    static class ReadBooleanFunction implements freemarker.template.TemplateMethodModelEx {
-        private final byte[] data;
-        
-        public ReadBooleanFunction(byte[] data) {
-            this.data = data;
+
+    // All readers share one little-endian buffer and use absolute gets, so the
+    // buffer position is never touched; see BinaryReadFunction
+    static Map<String, Object> createDataModel(ByteBuffer binaryData, BinarySchema schema) {
+        return createDataModel(binaryData, schema, ALL_READ_FUNCTIONS);
+    }
+
+    // BinaryReadFunction, with its pre-built models, is only loaded when a read* function is wanted
+    static Map<String, Object> createDataModel(ByteBuffer binaryData, BinarySchema schema,
+                                               Set<BinaryReadFunction.Kind> readFunctions) {
+        // Create data model with binary extraction functions
+        Map<String, Object> dataModel = new HashMap<>();
+        if (schema != null) {
+            dataModel.put("rec", schema.decode(binaryData));
         }
-        
-        @Override
-        public Object exec(java.util.List arguments) throws freemarker.template.TemplateModelException {
-            if (arguments.size() != 1) {
-                throw new freemarker.template.TemplateModelException("readBoolean requires 1 argument: offset");
-            }
-            int offset = Integer.parseInt(arguments.get(0).toString());
-            return data[offset] != 0;
+        if (binaryData.hasArray() && binaryData.arrayOffset() == 0 && binaryData.capacity() == binaryData.array().length) {
+            dataModel.put("binary", binaryData.array());
+        }
+        if (!readFunctions.isEmpty()) {
+            BinaryReadFunction.addAll(dataModel, binaryData, readFunctions);
         }
+        return dataModel;
     }
 }
@@ -0,0 +1,204 @@
+package com.example;
+
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import com.example.core.TimedMethod;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// The read* template functions. One class dispatches on the kind of read:
+// numeric arguments are taken straight from the TemplateNumberModel, and
+// results are returned already wrapped, so the object wrapper is never
+// involved. Unsigned bytes and booleans come from shared pre-built models.
+// The buffer must be little-endian; big-endian reads swap the bytes.
+final class BinaryReadFunction implements TemplateMethodModelEx {
+    enum Kind {
+        INT("readInt", "1 argument: offset"),
+        LONG("readLong", "1 argument: offset"),
+        FLOAT("readFloat", "1 argument: offset"),
+        BYTE("readByte", "1 argument: offset"),
+        BIT("readBit", "2 arguments: offset, bitPosition"),
+        STRING("readString", "2-3 arguments: offset, length, [encoding]"),
+        SHORT("readShort", "1 argument: offset"),
+        DOUBLE("readDouble", "1 argument: offset"),
+        UNSIGNED_INT("readUnsignedInt", "1 argument: offset"),
+        INT_BE("readIntBE", "1 argument: offset"),
+        LONG_BE("readLongBE", "1 argument: offset"),
+        FLOAT_BE("readFloatBE", "1 argument: offset"),
+        BYTES("readBytes", "2 arguments: offset, length"),
+        HEX("readHex", "2 arguments: offset, length"),
+        BOOLEAN("readBoolean", "1 argument: offset");
+
+        final String functionName;
+        final String usage;
+
+        Kind(String functionName, String usage) {
+            this.functionName = functionName;
+            this.usage = usage;
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final SimpleNumber[] UNSIGNED_BYTES = new SimpleNumber[256];
+
+    static {
+        for (int i = 0; i < UNSIGNED_BYTES.length; i++) {
+            UNSIGNED_BYTES[i] = new SimpleNumber(i);
+        }
+    }
+
+    private final Kind kind;
+    private final ByteBuffer data;
+
+    BinaryReadFunction(Kind kind, ByteBuffer data) {
+        this.kind = kind;
+        this.data = data;
+    }
+
+    // Put one function per kind into the data model, all reading the same buffer
+    static void addAll(Map<String, Object> dataModel, ByteBuffer data, Set<Kind> kinds) {
+        for (Kind kind : kinds) {
+            dataModel.put(kind.functionName, TimedMethod.wrap(kind.functionName, new BinaryReadFunction(kind, data)));
+        }
+    }
+
+    @Override
+    public Object exec(List arguments) throws TemplateModelException {
+        int size = arguments.size();
+        boolean valid;
+        switch (kind) {
+            case BIT:
+            case BYTES:
+            case HEX:
+                valid = size == 2;
+                break;
+            case STRING:
+                valid = size == 2 || size == 3;
+                break;
+            default:
+                valid = size == 1;
+        }
+        if (!valid) {
+            throw new TemplateModelException(kind.functionName + " requires " + kind.usage);
+        }
+
+        int offset = intArgument(arguments, 0);
+        switch (kind) {
+            case INT:
+                return new SimpleNumber(data.getInt(offset));
+            case LONG:
+                return new SimpleNumber(data.getLong(offset));
+            case FLOAT:
+                return new SimpleNumber(data.getFloat(offset));
+            case BYTE:
+                return unsignedByte(data.get(offset));
+            case BIT:
+                return bool((data.get(offset) & (1 << intArgument(arguments, 1))) != 0);
+            case STRING:
+                return readString(offset, intArgument(arguments, 1), size == 3 ? stringArgument(arguments, 2) : null);
+            case SHORT:
+                return new SimpleNumber(data.getShort(offset));
+            case DOUBLE:
+                return new SimpleNumber(data.getDouble(offset));
+            case UNSIGNED_INT:
+                return new SimpleNumber(data.getInt(offset) & 0xFFFFFFFFL);
+            case INT_BE:
+                return new SimpleNumber(Integer.reverseBytes(data.getInt(offset)));
+            case LONG_BE:
+                return new SimpleNumber(Long.reverseBytes(data.getLong(offset)));
+            case FLOAT_BE:
+                return new SimpleNumber(Float.intBitsToFloat(Integer.reverseBytes(data.getInt(offset))));
+            case BYTES:
+                return new SimpleScalar(bytes(offset, intArgument(arguments, 1)));
+            case HEX:
+                return new SimpleScalar(hex(data, offset, intArgument(arguments, 1)));
+            case BOOLEAN:
+                return bool(data.get(offset) != 0);
+            default:
+                throw new IllegalStateException(kind.name());
+        }
+    }
+
+    private SimpleScalar readString(int offset, int length, String encoding) throws TemplateModelException {
+        try {
+            Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+            return new SimpleScalar(string(data, offset, length, charset));
+        } catch (Exception e) {
+            throw new TemplateModelException("Error reading string: " + e.getMessage(), e);
+        }
+    }
+
+    // Comma-separated unsigned byte values, e.g. [1, 255]
+    private String bytes(int offset, int length) {
+        StringBuilder sb = new StringBuilder(2 + length * 5);
+        sb.append('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(data.get(offset + i) & 0xFF);
+        }
+        return sb.append(']').toString();
+    }
+
+    // Upper-case hex of length bytes at offset, via a lookup table
+    static String hex(ByteBuffer data, int offset, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = data.get(offset + i) & 0xFF;
+            chars[i * 2] = HEX_DIGITS[b >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[b & 0xF];
+        }
+        return new String(chars);
+    }
+
+    // Trimmed string of length bytes at offset; heap buffers are decoded in place
+    static String string(ByteBuffer data, int offset, int length, Charset charset) {
+        Objects.checkFromIndexSize(offset, length, data.capacity());
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + offset, length, charset).trim();
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(offset + i);
+        }
+        return new String(bytes, charset).trim();
+    }
+
+    static SimpleNumber unsignedByte(int value) {
+        return UNSIGNED_BYTES[value & 0xFF];
+    }
+
+    static TemplateBooleanModel bool(boolean value) {
+        return value ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+    }
+
+    private int intArgument(List arguments, int index) throws TemplateModelException {
+        Object argument = arguments.get(index);
+        if (argument instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) argument).getAsNumber().intValue();
+        }
+        try {
+            return Integer.parseInt(stringArgument(arguments, index).trim());
+        } catch (NumberFormatException e) {
+            throw new TemplateModelException(kind.functionName + " expects a number, got \"" + argument + "\"", e);
+        }
+    }
+
+    private static String stringArgument(List arguments, int index) throws TemplateModelException {
+        Object argument = arguments.get(index);
+        if (argument instanceof TemplateScalarModel) {
+            return ((TemplateScalarModel) argument).getAsString();
+        }
+        return String.valueOf(argument);
+    }
+}
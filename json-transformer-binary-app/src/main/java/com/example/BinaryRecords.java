@@ -0,0 +1,130 @@
+package com.example;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateSequenceModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+
+// A binary source split into records, either of a fixed size or each preceded
+// by a little-endian unsigned length prefix. Exposed to templates as a sequence
+// whose elements carry the usual read* functions with offsets relative to the
+// start of the record, so <#list records as r>${r.readInt(0)}</#list> works.
+// With a schema, each element also has the decoded record as "rec".
+final class BinaryRecords implements TemplateSequenceModel {
+    private static final ObjectWrapper WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build();
+
+    private final ByteBuffer[] segments;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    private final int count;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final BinarySchema schema;
+
+    private BinaryRecords(ByteBuffer[] segments, int recordSize, int count, int[] offsets, int[] lengths,
+                          BinarySchema schema) {
+        this.segments = segments;
+        this.recordSize = recordSize;
+        this.recordsPerSegment = recordSize > 0 ? segments[0].capacity() / recordSize : 0;
+        this.count = count;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.schema = schema;
+    }
+
+    // Fixed-size records; every segment but the last must hold a whole number of records
+    static BinaryRecords fixedSize(ByteBuffer[] segments, int recordSize, BinarySchema schema) throws IOException {
+        long total = 0;
+        for (ByteBuffer segment : segments) {
+            total += segment.capacity();
+        }
+        if (total % recordSize != 0) {
+            throw new IOException("Source size " + total + " is not a multiple of the record size " + recordSize);
+        }
+        if (total / recordSize > Integer.MAX_VALUE) {
+            throw new IOException("Source holds more than " + Integer.MAX_VALUE + " records");
+        }
+        return new BinaryRecords(segments, recordSize, (int) (total / recordSize), null, null, schema);
+    }
+
+    // Records preceded by a 1, 2 or 4 byte little-endian unsigned length; indexed in one pass
+    static BinaryRecords lengthPrefixed(ByteBuffer data, int prefixBytes, BinarySchema schema) throws IOException {
+        int[] offsets = new int[16];
+        int[] lengths = new int[16];
+        int count = 0;
+        int position = 0;
+        int limit = data.capacity();
+        while (position < limit) {
+            if (position + prefixBytes > limit) {
+                throw new IOException("Truncated length prefix at offset " + position);
+            }
+            long length;
+            switch (prefixBytes) {
+                case 1:
+                    length = data.get(position) & 0xFF;
+                    break;
+                case 2:
+                    length = data.getShort(position) & 0xFFFF;
+                    break;
+                default:
+                    length = data.getInt(position) & 0xFFFFFFFFL;
+            }
+            position += prefixBytes;
+            if (position + length > limit) {
+                throw new IOException("Record " + count + " at offset " + position + " runs past the end of the source");
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = position;
+            lengths[count] = (int) length;
+            count++;
+            position += (int) length;
+        }
+        return new BinaryRecords(new ByteBuffer[] {data}, 0, count, offsets, lengths, schema);
+    }
+
+    // Little-endian view of one record, positioned at its first byte
+    ByteBuffer record(int index) {
+        ByteBuffer segment;
+        int offset;
+        int length;
+        if (recordSize > 0) {
+            segment = segments[index / recordsPerSegment];
+            offset = (index % recordsPerSegment) * recordSize;
+            length = recordSize;
+        } else {
+            segment = segments[0];
+            offset = offsets[index];
+            length = lengths[index];
+        }
+        ByteBuffer view = segment.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    Map<String, Object> recordModel(int index) {
+        Map<String, Object> model = BinaryApp.createDataModel(record(index), schema);
+        model.put("recordIndex", index);
+        return model;
+    }
+
+    @Override
+    public TemplateModel get(int index) {
+        return index >= 0 && index < count ? new SimpleHash(recordModel(index), WRAPPER) : null;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+}
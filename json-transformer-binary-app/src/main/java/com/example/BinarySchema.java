@@ -0,0 +1,270 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+// Declarative record layout, loaded from a JSON schema file and compiled once
+// into one decoder per field:
+//
+//   {"byteOrder": "little", "fields": [
+//     {"name": "id", "type": "int32", "offset": 0},
+//     {"name": "name", "type": "string", "offset": 12, "length": 16},
+//     {"name": "online", "type": "bit", "offset": 41, "bit": 0},
+//     {"name": "mode", "type": "bits", "offset": 41, "bit": 4, "width": 3},
+//     {"name": "counter", "type": "uint32", "offset": 42, "byteOrder": "big"}]}
+//
+// Types: int8 uint8 int16 uint16 int32 uint32 int64 float32 float64 bool bit bits string hex.
+// Each record is exposed as a hash (${rec.temperature}) that decodes a field on
+// first access and caches the wrapped value.
+final class BinarySchema {
+    private final String[] names;
+    private final FieldDecoder[] decoders;
+    private final Map<String, Integer> indexByName;
+
+    private BinarySchema(String[] names, FieldDecoder[] decoders) {
+        this.names = names;
+        this.decoders = decoders;
+        this.indexByName = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            indexByName.put(names[i], i);
+        }
+    }
+
+    static BinarySchema load(Path schemaFile) throws IOException {
+        try (Reader reader = Files.newBufferedReader(schemaFile, StandardCharsets.UTF_8)) {
+            JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+            boolean defaultBigEndian = isBigEndian(root, false);
+            JsonArray fields = root.getAsJsonArray("fields");
+            if (fields == null) {
+                throw new IOException("Schema has no \"fields\" array");
+            }
+
+            String[] names = new String[fields.size()];
+            FieldDecoder[] decoders = new FieldDecoder[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                JsonObject field = fields.get(i).getAsJsonObject();
+                names[i] = requireString(field, "name");
+                try {
+                    decoders[i] = compile(field, isBigEndian(field, defaultBigEndian));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid schema field \"" + names[i] + "\": " + e.getMessage(), e);
+                }
+            }
+            return new BinarySchema(names, decoders);
+        } catch (JsonParseException | IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Invalid schema " + schemaFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Typed view of one record; the buffer must be little-endian and start at the record
+    TemplateHashModelEx decode(ByteBuffer record) {
+        return new RecordModel(record);
+    }
+
+    private static FieldDecoder compile(JsonObject field, boolean bigEndian) {
+        String type = requireString(field, "type");
+        int offset = requireInt(field, "offset");
+        switch (type) {
+            case "int8":
+                return record -> new SimpleNumber(record.get(offset));
+            case "uint8":
+                return record -> BinaryReadFunction.unsignedByte(record.get(offset));
+            case "int16":
+                return record -> new SimpleNumber(short16(record, offset, bigEndian));
+            case "uint16":
+                return record -> new SimpleNumber(short16(record, offset, bigEndian) & 0xFFFF);
+            case "int32":
+                return record -> new SimpleNumber(int32(record, offset, bigEndian));
+            case "uint32":
+                return record -> new SimpleNumber(int32(record, offset, bigEndian) & 0xFFFFFFFFL);
+            case "int64":
+                return record -> new SimpleNumber(int64(record, offset, bigEndian));
+            case "float32":
+                return record -> new SimpleNumber(Float.intBitsToFloat(int32(record, offset, bigEndian)));
+            case "float64":
+                return record -> new SimpleNumber(Double.longBitsToDouble(int64(record, offset, bigEndian)));
+            case "bool":
+                return record -> BinaryReadFunction.bool(record.get(offset) != 0);
+            case "bit": {
+                int mask = 1 << requireBit(field);
+                return record -> BinaryReadFunction.bool((record.get(offset) & mask) != 0);
+            }
+            case "bits": {
+                int bit = requireBit(field);
+                int width = requireInt(field, "width");
+                if (width < 1 || bit + width > 8) {
+                    throw new IllegalArgumentException("bits must fit in one byte");
+                }
+                int mask = (1 << width) - 1;
+                return record -> BinaryReadFunction.unsignedByte(((record.get(offset) & 0xFF) >>> bit) & mask);
+            }
+            case "string": {
+                int length = requireInt(field, "length");
+                Charset charset = Charset.forName(field.has("encoding") ? field.get("encoding").getAsString() : "UTF-8");
+                return record -> new SimpleScalar(BinaryReadFunction.string(record, offset, length, charset));
+            }
+            case "hex": {
+                int length = requireInt(field, "length");
+                return record -> new SimpleScalar(BinaryReadFunction.hex(record, offset, length));
+            }
+            default:
+                throw new IllegalArgumentException("unknown type " + type);
+        }
+    }
+
+    // The record buffer is little-endian; big-endian fields swap the bytes instead of re-ordering the buffer
+    private static short short16(ByteBuffer record, int offset, boolean bigEndian) {
+        short value = record.getShort(offset);
+        return bigEndian ? Short.reverseBytes(value) : value;
+    }
+
+    private static int int32(ByteBuffer record, int offset, boolean bigEndian) {
+        int value = record.getInt(offset);
+        return bigEndian ? Integer.reverseBytes(value) : value;
+    }
+
+    private static long int64(ByteBuffer record, int offset, boolean bigEndian) {
+        long value = record.getLong(offset);
+        return bigEndian ? Long.reverseBytes(value) : value;
+    }
+
+    private static boolean isBigEndian(JsonObject object, boolean defaultValue) {
+        JsonElement order = object.get("byteOrder");
+        if (order == null) {
+            return defaultValue;
+        }
+        switch (order.getAsString()) {
+            case "big":
+                return true;
+            case "little":
+                return false;
+            default:
+                throw new IllegalArgumentException("byteOrder must be big or little: " + order.getAsString());
+        }
+    }
+
+    private static String requireString(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing \"" + name + "\"");
+        }
+        return value.getAsString();
+    }
+
+    private static int requireInt(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing \"" + name + "\"");
+        }
+        int number = value.getAsInt();
+        if (number < 0) {
+            throw new IllegalArgumentException("\"" + name + "\" must not be negative");
+        }
+        return number;
+    }
+
+    private static int requireBit(JsonObject object) {
+        int bit = requireInt(object, "bit");
+        if (bit > 7) {
+            throw new IllegalArgumentException("bit must be 0-7");
+        }
+        return bit;
+    }
+
+    private interface FieldDecoder {
+        TemplateModel decode(ByteBuffer record);
+    }
+
+    private final class RecordModel implements TemplateHashModelEx {
+        private final ByteBuffer record;
+        private final TemplateModel[] values = new TemplateModel[decoders.length];
+
+        RecordModel(ByteBuffer record) {
+            this.record = record;
+        }
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            Integer index = indexByName.get(key);
+            return index == null ? null : value(index);
+        }
+
+        private TemplateModel value(int index) throws TemplateModelException {
+            TemplateModel value = values[index];
+            if (value == null) {
+                try {
+                    value = decoders[index].decode(record);
+                } catch (IndexOutOfBoundsException e) {
+                    throw new TemplateModelException("Field " + names[index] + " lies outside the record of "
+                            + record.capacity() + " bytes", e);
+                }
+                values[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return names.length == 0;
+        }
+
+        @Override
+        public int size() {
+            return names.length;
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return () -> new TemplateModelIterator() {
+                private int next;
+
+                @Override
+                public TemplateModel next() {
+                    return new SimpleScalar(names[next++]);
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < names.length;
+                }
+            };
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return () -> new TemplateModelIterator() {
+                private int next;
+
+                @Override
+                public TemplateModel next() throws TemplateModelException {
+                    return value(next++);
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < names.length;
+                }
+            };
+        }
+    }
+}
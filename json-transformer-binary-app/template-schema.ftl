@@ -0,0 +1,29 @@
+{
+  "device": {
+    "id": ${rec.id},
+    "name": "${rec.name}",
+    "battery": ${rec.battery},
+    "status": {
+      "online": ${rec.online?c},
+      "lowBattery": ${rec.lowBattery?c},
+      "error": ${rec.error?c},
+      "calibrated": ${rec.calibrated?c}
+    }
+  },
+  "measurements": {
+    "temperature": {
+      "value": ${rec.temperature},
+      "unit": "celsius"
+    },
+    "humidity": {
+      "value": ${rec.humidity},
+      "unit": "percent"
+    },
+    "pressure": {
+      "value": ${rec.pressure},
+      "unit": "hPa"
+    }
+  },
+  "timestamp": ${rec.timestamp},
+  "formattedTime": "${rec.timestamp?number_to_datetime?string("yyyy-MM-dd HH:mm:ss")}"
+}
@@ -0,0 +1,28 @@
+package com.example;
+
+import com.example.core.TransformEngine;
+import com.example.core.TransformOptions;
+
+// All source types in one jar, for feeds that mix them: every SourceAdapter
+// on the class path is loaded into one engine. A run picks its adapter with
+// --source-type, or by the source's extension (.bin is binary, anything else
+// json); the server serves them all, selected per request.
+public class BundleApp {
+    public static void main(String[] args) {
+        TransformEngine engine = TransformEngine.load();
+        String[] appOptions = {"--source-type <" + String.join("|", names(engine)) + ">"};
+        TransformEngine.main(args, engine, "source", appOptions, options -> engine.adapter(sourceType(options)));
+    }
+
+    private static String sourceType(TransformOptions options) {
+        String type = options.getOption("--source-type", null);
+        if (type != null) {
+            return type;
+        }
+        return options.getSourcePath().endsWith(".bin") ? "binary" : "json";
+    }
+
+    private static String[] names(TransformEngine engine) {
+        return engine.adapters().stream().map(adapter -> adapter.name()).toArray(String[]::new);
+    }
+}
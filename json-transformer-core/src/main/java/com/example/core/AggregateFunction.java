@@ -0,0 +1,663 @@
+package com.example.core;
+
+import freemarker.core.Environment;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
+import freemarker.template.SimpleNumber;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// The aggregate template functions of --columnar, shared by every template:
+//   sum(seq[, field]), avg, min, max   number; missing values are skipped,
+//                                      sum of none is 0, the others are missing
+//   groupBy(seq, field)                hash from each value to the elements with it,
+//                                      in order of first appearance
+//   topN(seq, field, n)                the n elements with the largest values, largest first
+//   sortBy(seq, field)                 ascending, stable, elements without the field last
+// On a ColumnarArray whose field is a long, double or string column they run
+// on the column arrays without wrapping a value, and arrays of
+// PARALLEL_THRESHOLD elements or more are split into fork-join tasks. Any
+// other sequence (a plain JSON array, a ?filter result) goes through its
+// template models, so a template gives the same output on either, but for
+// the last digits of double sums, which fork-join adds up in another order.
+// groupBy only considers elements with the field, and so does topN.
+public final class AggregateFunction implements TemplateMethodModelEx {
+    enum Kind {
+        SUM("sum", 1, 2, "1-2 arguments: sequence, [field]"),
+        AVG("avg", 1, 2, "1-2 arguments: sequence, [field]"),
+        MIN("min", 1, 2, "1-2 arguments: sequence, [field]"),
+        MAX("max", 1, 2, "1-2 arguments: sequence, [field]"),
+        GROUP_BY("groupBy", 2, 2, "2 arguments: sequence, field"),
+        TOP_N("topN", 3, 3, "3 arguments: sequence, field, n"),
+        SORT_BY("sortBy", 2, 2, "2 arguments: sequence, field");
+
+        final String functionName;
+        final int minArguments;
+        final int maxArguments;
+        final String usage;
+
+        Kind(String functionName, int minArguments, int maxArguments, String usage) {
+            this.functionName = functionName;
+            this.minArguments = minArguments;
+            this.maxArguments = maxArguments;
+            this.usage = usage;
+        }
+    }
+
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+    // Below this, merge sort leaves sort by insertion
+    private static final int INSERTION_THRESHOLD = 32;
+    // Group hashes only hold template models, so the wrapper is never asked to wrap
+    private static final ObjectWrapper WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build();
+
+    private final Kind kind;
+
+    private AggregateFunction(Kind kind) {
+        this.kind = kind;
+    }
+
+    // Make every function a shared variable; a data model key of the same name hides it
+    public static void register(Configuration cfg) {
+        for (Kind kind : Kind.values()) {
+            cfg.setSharedVariable(kind.functionName, TimedMethod.wrap(kind.functionName, new AggregateFunction(kind)));
+        }
+    }
+
+    // TemplateMethodModelEx declares a raw List, which an override cannot narrow to List<?>
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object exec(List arguments) throws TemplateModelException {
+        if (arguments.size() < kind.minArguments || arguments.size() > kind.maxArguments) {
+            throw new TemplateModelException(kind.functionName + " requires " + kind.usage);
+        }
+        if (!(arguments.get(0) instanceof TemplateSequenceModel)) {
+            throw new TemplateModelException(kind.functionName + ": the first argument must be a sequence");
+        }
+        TemplateSequenceModel sequence = (TemplateSequenceModel) arguments.get(0);
+        String field = null;
+        if (arguments.size() > 1) {
+            if (!(arguments.get(1) instanceof TemplateScalarModel)) {
+                throw new TemplateModelException(kind.functionName + ": the field must be a string");
+            }
+            field = ((TemplateScalarModel) arguments.get(1)).getAsString();
+        }
+        switch (kind) {
+            case SUM:
+            case AVG:
+            case MIN:
+            case MAX:
+                return result(stats(sequence, field));
+            case GROUP_BY:
+                return groupBy(keys(sequence, field));
+            case TOP_N:
+                if (!(arguments.get(2) instanceof TemplateNumberModel)) {
+                    throw new TemplateModelException(kind.functionName + ": n must be a number");
+                }
+                return topN(keys(sequence, field), ((TemplateNumberModel) arguments.get(2)).getAsNumber().intValue());
+            case SORT_BY:
+                return sortBy(keys(sequence, field));
+            default:
+                throw new IllegalStateException("Unknown function " + kind);
+        }
+    }
+
+    private TemplateModel result(Stats stats) {
+        if (kind == Kind.SUM) {
+            return stats.exact ? new SimpleNumber(stats.longSum) : new SimpleNumber(stats.sum);
+        }
+        if (stats.count == 0) {
+            return null;
+        }
+        switch (kind) {
+            case AVG:
+                return new SimpleNumber(stats.sum / stats.count);
+            case MIN:
+                return new SimpleNumber(stats.min);
+            default:
+                return new SimpleNumber(stats.max);
+        }
+    }
+
+    private Stats stats(TemplateSequenceModel sequence, String field) throws TemplateModelException {
+        if (sequence instanceof ColumnarArray && field != null) {
+            ColumnarArray array = (ColumnarArray) sequence;
+            ColumnarArray.Column column = array.column(field);
+            if (column instanceof ColumnarArray.LongColumn || column instanceof ColumnarArray.DoubleColumn) {
+                StatsTask task = new StatsTask(array, column, 0, array.size());
+                return array.size() >= PARALLEL_THRESHOLD ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+            }
+        }
+        Stats stats = new Stats(false);
+        int size = sequence.size();
+        for (int i = 0; i < size; i++) {
+            TemplateModel value = value(sequence.get(i), field);
+            if (value instanceof TemplateNumberModel) {
+                stats.add(((TemplateNumberModel) value).getAsNumber().doubleValue());
+            } else if (value != null) {
+                throw new TemplateModelException(kind.functionName + ": " + describe(field) + " is not a number");
+            }
+        }
+        return stats;
+    }
+
+    private TemplateModel value(TemplateModel element, String field) throws TemplateModelException {
+        if (field == null) {
+            return element;
+        }
+        if (!(element instanceof TemplateHashModel)) {
+            throw new TemplateModelException(kind.functionName + ": the elements must be hashes to read \"" + field + "\"");
+        }
+        return ((TemplateHashModel) element).get(field);
+    }
+
+    private static String describe(String field) {
+        return field == null ? "an element" : "a value of \"" + field + "\"";
+    }
+
+    // Sort keys of the elements: primitive column arrays on a ColumnarArray, values read through the models otherwise
+    private Keys keys(TemplateSequenceModel sequence, String field) throws TemplateModelException {
+        if (sequence instanceof ColumnarArray) {
+            ColumnarArray array = (ColumnarArray) sequence;
+            ColumnarArray.Column column = array.column(field);
+            int[] ids = new int[array.size()];
+            for (int position = 0; position < ids.length; position++) {
+                ids[position] = array.row(position);
+            }
+            if (column instanceof ColumnarArray.LongColumn) {
+                ColumnarArray.LongColumn longs = (ColumnarArray.LongColumn) column;
+                return new LongKeys(ids, longs.values, longs.missing, positions -> array.view(rows(ids, positions)));
+            }
+            if (column instanceof ColumnarArray.DoubleColumn) {
+                ColumnarArray.DoubleColumn doubles = (ColumnarArray.DoubleColumn) column;
+                return new DoubleKeys(ids, doubles.values, doubles.missing, positions -> array.view(rows(ids, positions)));
+            }
+            if (column instanceof ColumnarArray.StringColumn) {
+                ColumnarArray.StringColumn strings = (ColumnarArray.StringColumn) column;
+                return new StringKeys(ids, strings.codes, strings.dictionary,
+                        positions -> array.view(rows(ids, positions)));
+            }
+        }
+
+        int size = sequence.size();
+        TemplateModel[] elements = new TemplateModel[size];
+        int[] ids = new int[size];
+        double[] numbers = null;
+        int[] codes = null;
+        Map<String, Integer> known = null;
+        BitSet missing = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            elements[i] = sequence.get(i);
+            ids[i] = i;
+            TemplateModel value = value(elements[i], field);
+            if (value == null) {
+                missing.set(i);
+            } else if (value instanceof TemplateNumberModel && codes == null) {
+                numbers = numbers == null ? new double[size] : numbers;
+                numbers[i] = ((TemplateNumberModel) value).getAsNumber().doubleValue();
+            } else if (value instanceof TemplateScalarModel && numbers == null) {
+                if (codes == null) {
+                    codes = new int[size];
+                    Arrays.fill(codes, -1);
+                    known = new LinkedHashMap<>();
+                }
+                String text = ((TemplateScalarModel) value).getAsString();
+                Integer code = known.putIfAbsent(text, known.size());
+                codes[i] = code == null ? known.size() - 1 : code;
+            } else {
+                throw new TemplateModelException(kind.functionName + ": the values of \"" + field
+                        + "\" must be all numbers or all strings");
+            }
+        }
+        Selector select = positions -> new Elements(elements, positions);
+        if (codes != null) {
+            return new StringKeys(ids, codes, known.keySet().toArray(new String[0]), select);
+        }
+        return new DoubleKeys(ids, numbers == null ? new double[size] : numbers, missing, select);
+    }
+
+    private static int[] rows(int[] ids, int[] positions) {
+        int[] rows = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            rows[i] = ids[positions[i]];
+        }
+        return rows;
+    }
+
+    private static TemplateModel sortBy(Keys keys) {
+        int[] present = keys.present();
+        int[] sorted = new int[keys.ids.length];
+        System.arraycopy(present, 0, sorted, 0, present.length);
+        sort(sorted, present.length, (a, b) -> keys.compare(keys.ids[a], keys.ids[b]));
+        // Then the elements without the field, in their order
+        int next = present.length;
+        for (int position = 0; position < keys.ids.length; position++) {
+            if (keys.isMissing(keys.ids[position])) {
+                sorted[next++] = position;
+            }
+        }
+        return keys.select.select(sorted);
+    }
+
+    private static TemplateModel topN(Keys keys, int n) {
+        int[] present = keys.present();
+        // Largest first; equal values in sequence order
+        IntComparator order = (a, b) -> {
+            int c = keys.compare(keys.ids[b], keys.ids[a]);
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+        int count = Math.max(0, Math.min(n, present.length));
+        if (count == 0) {
+            return keys.select.select(new int[0]);
+        }
+        if (count * 8L >= present.length) {
+            sort(present, present.length, order);
+            return keys.select.select(Arrays.copyOf(present, count));
+        }
+        // Few of many: keep the best count in a heap whose root is the worst of them
+        int[] heap = Arrays.copyOf(present, count);
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, count, order);
+        }
+        for (int i = count; i < present.length; i++) {
+            if (order.compare(present[i], heap[0]) < 0) {
+                heap[0] = present[i];
+                siftDown(heap, 0, count, order);
+            }
+        }
+        sort(heap, count, order);
+        return keys.select.select(heap);
+    }
+
+    private static void siftDown(int[] heap, int index, int size, IntComparator order) {
+        int value = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && order.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (order.compare(heap[child], value) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+
+    private static TemplateModel groupBy(Keys keys) {
+        int[] present = keys.present();
+        sort(present, present.length, (a, b) -> keys.compare(keys.ids[a], keys.ids[b]));
+        // Equal values are now runs, each in sequence order; order the runs by their first element
+        int[] starts = new int[present.length + 1];
+        int groups = 0;
+        for (int i = 0; i < present.length; i++) {
+            if (i == 0 || keys.compare(keys.ids[present[i - 1]], keys.ids[present[i]]) != 0) {
+                starts[groups++] = i;
+            }
+        }
+        starts[groups] = present.length;
+        int[] order = new int[groups];
+        for (int group = 0; group < groups; group++) {
+            order[group] = group;
+        }
+        sort(order, groups, (a, b) -> Integer.compare(present[starts[a]], present[starts[b]]));
+        Map<String, Object> hash = new LinkedHashMap<>();
+        for (int group : order) {
+            int[] members = Arrays.copyOfRange(present, starts[group], starts[group + 1]);
+            hash.put(keys.name(keys.ids[members[0]]), keys.select.select(members));
+        }
+        return new SimpleHash(hash, WRAPPER);
+    }
+
+    // Stable merge sort of the first length ints, forking halves of large arrays into fork-join tasks
+    static void sort(int[] values, int length, IntComparator order) {
+        int[] buffer = new int[length];
+        MergeSort task = new MergeSort(values, buffer, 0, length, order);
+        if (length >= PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    @FunctionalInterface
+    interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    @FunctionalInterface
+    private interface Selector {
+        TemplateSequenceModel select(int[] positions);
+    }
+
+    private static final class MergeSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] values;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final IntComparator order;
+
+        MergeSort(int[] values, int[] buffer, int from, int to, IntComparator order) {
+            this.values = values;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.order = order;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_THRESHOLD) {
+                sequential(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MergeSort(values, buffer, from, middle, order), new MergeSort(values, buffer, middle, to, order));
+            merge(from, middle, to);
+        }
+
+        private void sequential(int low, int high) {
+            if (high - low < INSERTION_THRESHOLD) {
+                for (int i = low + 1; i < high; i++) {
+                    int value = values[i];
+                    int j = i - 1;
+                    while (j >= low && order.compare(values[j], value) > 0) {
+                        values[j + 1] = values[j];
+                        j--;
+                    }
+                    values[j + 1] = value;
+                }
+                return;
+            }
+            int middle = (low + high) >>> 1;
+            sequential(low, middle);
+            sequential(middle, high);
+            merge(low, middle, high);
+        }
+
+        private void merge(int low, int middle, int high) {
+            if (order.compare(values[middle - 1], values[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(values, low, buffer, low, high - low);
+            int left = low;
+            int right = middle;
+            for (int i = low; i < high; i++) {
+                if (right >= high || left < middle && order.compare(buffer[left], buffer[right]) <= 0) {
+                    values[i] = buffer[left++];
+                } else {
+                    values[i] = buffer[right++];
+                }
+            }
+        }
+    }
+
+    // Count, sum, minimum and maximum; longSum stays exact while exact is set
+    private static final class Stats {
+        long count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long longSum;
+        boolean exact;
+
+        Stats(boolean exact) {
+            this.exact = exact;
+        }
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        void addExact(long value) {
+            long total = longSum + value;
+            if (((longSum ^ total) & (value ^ total)) < 0) {
+                exact = false;
+            }
+            longSum = total;
+        }
+
+        Stats combine(Stats other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            exact &= other.exact;
+            if (exact) {
+                addExact(other.longSum);
+            }
+            return this;
+        }
+    }
+
+    // Stats of a numeric column over a range of positions of a ColumnarArray
+    private static final class StatsTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final ColumnarArray array;
+        private final ColumnarArray.Column column;
+        private final int from;
+        private final int to;
+
+        StatsTask(ColumnarArray array, ColumnarArray.Column column, int from, int to) {
+            this.array = array;
+            this.column = column;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (to - from >= PARALLEL_THRESHOLD * 2) {
+                int middle = (from + to) >>> 1;
+                StatsTask left = new StatsTask(array, column, from, middle);
+                left.fork();
+                Stats right = new StatsTask(array, column, middle, to).compute();
+                return left.join().combine(right);
+            }
+            if (column instanceof ColumnarArray.LongColumn) {
+                long[] values = ((ColumnarArray.LongColumn) column).values;
+                BitSet missing = ((ColumnarArray.LongColumn) column).missing;
+                Stats stats = new Stats(true);
+                for (int position = from; position < to; position++) {
+                    int row = array.row(position);
+                    if (missing == null || !missing.get(row)) {
+                        stats.add(values[row]);
+                        stats.addExact(values[row]);
+                    }
+                }
+                return stats;
+            }
+            double[] values = ((ColumnarArray.DoubleColumn) column).values;
+            BitSet missing = ((ColumnarArray.DoubleColumn) column).missing;
+            Stats stats = new Stats(false);
+            for (int position = from; position < to; position++) {
+                int row = array.row(position);
+                if (missing == null || !missing.get(row)) {
+                    stats.add(values[row]);
+                }
+            }
+            return stats;
+        }
+    }
+
+    // Values to order and group by, indexed by id: a row of a ColumnarArray or a position of another sequence
+    private abstract static class Keys {
+        // Id of each element of the sequence, in sequence order
+        final int[] ids;
+        final Selector select;
+
+        Keys(int[] ids, Selector select) {
+            this.ids = ids;
+            this.select = select;
+        }
+
+        abstract boolean isMissing(int id);
+
+        // Both ids have a value
+        abstract int compare(int a, int b);
+
+        // Group name of a value
+        abstract String name(int id);
+
+        // Positions of the elements that have a value
+        int[] present() {
+            int[] positions = new int[ids.length];
+            int count = 0;
+            for (int position = 0; position < ids.length; position++) {
+                if (!isMissing(ids[position])) {
+                    positions[count++] = position;
+                }
+            }
+            return count == positions.length ? positions : Arrays.copyOf(positions, count);
+        }
+    }
+
+    private static final class LongKeys extends Keys {
+        private final long[] values;
+        private final BitSet missing;
+
+        LongKeys(int[] ids, long[] values, BitSet missing, Selector select) {
+            super(ids, select);
+            this.values = values;
+            this.missing = missing;
+        }
+
+        @Override
+        boolean isMissing(int id) {
+            return missing != null && missing.get(id);
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Long.compare(values[a], values[b]);
+        }
+
+        @Override
+        String name(int id) {
+            return Long.toString(values[id]);
+        }
+    }
+
+    private static final class DoubleKeys extends Keys {
+        private final double[] values;
+        private final BitSet missing;
+
+        DoubleKeys(int[] ids, double[] values, BitSet missing, Selector select) {
+            super(ids, select);
+            this.values = values;
+            this.missing = missing;
+        }
+
+        @Override
+        boolean isMissing(int id) {
+            return missing != null && missing.get(id);
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Double.compare(value(a), value(b));
+        }
+
+        // Whole numbers without a fraction, as ?c prints them
+        @Override
+        String name(int id) {
+            double value = value(id);
+            return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+        }
+
+        // -0.0 is the key 0.0, as it is equal to it and has the same name; the values may be
+        // a shared column, so they are normalized here rather than in place
+        private double value(int id) {
+            double value = values[id];
+            return value == 0 ? 0.0 : value;
+        }
+    }
+
+    // Strings compare by the rank of their code in the dictionary, sorted for the template's locale as ?sort_by does
+    private static final class StringKeys extends Keys {
+        private final int[] codes;
+        private final String[] dictionary;
+        private final int[] ranks;
+
+        StringKeys(int[] ids, int[] codes, String[] dictionary, Selector select) {
+            super(ids, select);
+            this.codes = codes;
+            this.dictionary = dictionary;
+            Environment env = Environment.getCurrentEnvironment();
+            Collator collator = Collator.getInstance(env != null ? env.getLocale() : Locale.getDefault());
+            Integer[] byValue = new Integer[dictionary.length];
+            for (int code = 0; code < dictionary.length; code++) {
+                byValue[code] = code;
+            }
+            Arrays.sort(byValue, Comparator.comparing((Integer code) -> dictionary[code], collator));
+            this.ranks = new int[dictionary.length];
+            for (int rank = 0; rank < byValue.length; rank++) {
+                ranks[byValue[rank]] = rank;
+            }
+        }
+
+        @Override
+        boolean isMissing(int id) {
+            return codes[id] < 0;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Integer.compare(ranks[codes[a]], ranks[codes[b]]);
+        }
+
+        @Override
+        String name(int id) {
+            return dictionary[codes[id]];
+        }
+    }
+
+    // Some elements of a sequence, in the given order
+    private static final class Elements implements TemplateSequenceModel {
+        private final TemplateModel[] elements;
+        private final int[] positions;
+
+        Elements(TemplateModel[] elements, int[] positions) {
+            this.elements = elements;
+            this.positions = positions;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            return index < 0 || index >= positions.length ? null : elements[positions[index]];
+        }
+
+        @Override
+        public int size() {
+            return positions.length;
+        }
+    }
+}
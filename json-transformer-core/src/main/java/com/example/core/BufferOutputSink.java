@@ -0,0 +1,54 @@
+package com.example.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+// Rendered output kept in memory as UTF-8 bytes, for results that are sent
+// somewhere else once complete (an HTTP response, a combined batch file).
+// Each open() starts over.
+public class BufferOutputSink implements OutputSink {
+    private final Bytes bytes = new Bytes();
+
+    @Override
+    public Output open() {
+        bytes.reset();
+        ChannelWriter writer = new ChannelWriter(Channels.newChannel(bytes), false);
+        return new Output() {
+            @Override
+            public ChannelWriter writer() {
+                return writer;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                writer.close();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    public int size() {
+        return bytes.size();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        bytes.writeTo(out);
+    }
+
+    // Append the bytes to another writer without decoding them
+    public void writeTo(ChannelWriter out) throws IOException {
+        out.writeEncoded(bytes.buffer(), 0, bytes.size());
+    }
+
+    private static final class Bytes extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
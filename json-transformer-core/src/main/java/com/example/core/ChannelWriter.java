@@ -0,0 +1,180 @@
+package com.example.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Writer that encodes UTF-8 straight into a byte channel. The char buffer,
+// byte buffer and encoder come from a bounded pool shared by all threads and
+// go back to it on close, so rendering many documents allocates none of them
+// once the pool is warm. The pool is not per-thread because with
+// --virtual-threads every task runs on a fresh thread and a ThreadLocal
+// would never be reused. Already encoded bytes can be written with writeEncoded.
+public class ChannelWriter extends Writer {
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+    private static final int BYTE_BUFFER_SIZE = 32 * 1024;
+    // More writers than this open at once allocate buffers that are dropped on close
+    private static final BlockingQueue<Buffers> POOL =
+            new ArrayBlockingQueue<>(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private Buffers buffers;
+
+    public ChannelWriter(WritableByteChannel channel, boolean closeChannel) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        Buffers pooled = POOL.poll();
+        this.buffers = pooled != null ? pooled : new Buffers();
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        CharBuffer pending = buffers();
+        while (length > 0) {
+            int count = Math.min(length, pending.remaining());
+            pending.put(chars, offset, count);
+            offset += count;
+            length -= count;
+            if (!pending.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        CharBuffer pending = buffers();
+        while (length > 0) {
+            int count = Math.min(length, pending.remaining());
+            text.getChars(offset, offset + count, pending.array(), pending.arrayOffset() + pending.position());
+            pending.position(pending.position() + count);
+            offset += count;
+            length -= count;
+            if (!pending.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        CharBuffer pending = buffers();
+        pending.put((char) c);
+        if (!pending.hasRemaining()) {
+            encode(false);
+        }
+    }
+
+    // Write bytes that are already UTF-8, after everything written before them;
+    // runs that fit join the encoded bytes in the buffer, longer ones go straight to the channel
+    public void writeEncoded(byte[] bytes, int offset, int length) throws IOException {
+        buffers();
+        encode(true);
+        if (length <= buffers.bytes.remaining()) {
+            buffers.bytes.put(bytes, offset, length);
+            return;
+        }
+        drain();
+        if (length <= BYTE_BUFFER_SIZE / 4) {
+            buffers.bytes.put(bytes, offset, length);
+            return;
+        }
+        ByteBuffer encoded = ByteBuffer.wrap(bytes, offset, length);
+        try (Metrics.Span span = Metrics.start("write")) {
+            while (encoded.hasRemaining()) {
+                channel.write(encoded);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffers();
+        encode(false);
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffers == null) {
+            return;
+        }
+        try {
+            encode(true);
+            drain();
+        } finally {
+            Buffers released = buffers;
+            buffers = null;
+            released.reset();
+            POOL.offer(released);
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    private CharBuffer buffers() throws IOException {
+        if (buffers == null) {
+            throw new IOException("Writer is closed");
+        }
+        return buffers.chars;
+    }
+
+    // Encode the pending chars; a trailing high surrogate waits for its pair unless endOfInput
+    private void encode(boolean endOfInput) throws IOException {
+        CharBuffer chars = buffers.chars;
+        ByteBuffer bytes = buffers.bytes;
+        chars.flip();
+        while (true) {
+            CoderResult result = buffers.encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        chars.compact();
+        if (endOfInput) {
+            buffers.encoder.reset();
+        }
+    }
+
+    private void drain() throws IOException {
+        ByteBuffer bytes = buffers.bytes;
+        bytes.flip();
+        if (bytes.hasRemaining()) {
+            try (Metrics.Span span = Metrics.start("write")) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+        }
+        bytes.clear();
+    }
+
+    private static final class Buffers {
+        final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+        // Unpaired surrogates become '?', as with String.getBytes
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        void reset() {
+            chars.clear();
+            bytes.clear();
+            encoder.reset();
+        }
+    }
+}
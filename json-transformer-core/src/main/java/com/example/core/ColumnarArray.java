@@ -0,0 +1,460 @@
+package com.example.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateSequenceModel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// An array of JSON objects held column by column (--columnar). Each field of
+// the objects becomes one column: a long[] when all its values are integers,
+// a double[] for other numbers, dictionary-encoded codes for strings, so that
+// AggregateFunction can sum, sort and group it in primitive loops. Fields with
+// booleans, objects, arrays or mixed types keep their JsonElements and are
+// wrapped lazily, as JsonElementWrapper does. To templates it is an ordinary
+// sequence of hashes, and numbers still read as doubles. Each element keeps
+// its own keys in its own order, null members included, so listing a row as
+// a hash prints what the other data models print. A view shares the
+// columns but lists a subset of the rows in its own order; sorted and grouped
+// results are views.
+public final class ColumnarArray implements TemplateSequenceModel {
+    // Integers beyond this are not exact as doubles, so such columns are kept as doubles
+    private static final long MAX_EXACT = 1L << 53;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int STRING = 4;
+    private static final int OTHER = 8;
+
+    private final Map<String, Column> columns;
+    // Column names in column order, the order in which the fields first appear
+    private final String[] names;
+    // Per row, the columns of its keys in the object's order; null where that is column
+    // order without the missing columns, and null altogether if it is for every row
+    private final int[][] keyOrders;
+    private final int rowCount;
+    // Rows of this view in order; null for all rows as in the source array
+    private final int[] rows;
+
+    private ColumnarArray(Map<String, Column> columns, String[] names, int[][] keyOrders, int rowCount, int[] rows) {
+        this.columns = columns;
+        this.names = names;
+        this.keyOrders = keyOrders;
+        this.rowCount = rowCount;
+        this.rows = rows;
+    }
+
+    // Whether the array can be held in columns: not empty, and every element an object
+    static boolean isColumnar(JsonArray array) {
+        if (array.size() == 0) {
+            return false;
+        }
+        for (JsonElement element : array) {
+            if (!element.isJsonObject()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ColumnarArray of(JsonArray array) {
+        int rowCount = array.size();
+        JsonObject[] objects = new JsonObject[rowCount];
+        // Types seen per field, in order of first appearance; nulls are 0, read as missing
+        Map<String, Integer> types = new LinkedHashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            objects[row] = array.get(row).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> member : objects[row].entrySet()) {
+                types.merge(member.getKey(), typeOf(member.getValue()), (a, b) -> a | b);
+            }
+        }
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> field : types.entrySet()) {
+            int type = field.getValue();
+            Column column;
+            if (type == 0) {
+                // Null in every row: kept only for the rows' keys
+                column = ElementColumn.of(objects, field.getKey());
+            } else if (type == LONG) {
+                column = LongColumn.of(objects, field.getKey());
+            } else if ((type & ~(LONG | DOUBLE)) == 0) {
+                column = DoubleColumn.of(objects, field.getKey());
+            } else if (type == STRING) {
+                column = StringColumn.of(objects, field.getKey());
+            } else {
+                column = ElementColumn.of(objects, field.getKey());
+            }
+            columns.put(field.getKey(), column);
+        }
+        String[] names = columns.keySet().toArray(new String[0]);
+        return new ColumnarArray(columns, names, keyOrders(objects, names), rowCount, null);
+    }
+
+    // The rows whose keys are not in column order, or that have null members, with their own key order
+    private static int[][] keyOrders(JsonObject[] objects, String[] names) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            indexes.put(names[i], i);
+        }
+        int[][] keyOrders = null;
+        for (int row = 0; row < objects.length; row++) {
+            int[] order = new int[objects[row].size()];
+            boolean columnOrder = true;
+            int i = 0;
+            for (Map.Entry<String, JsonElement> member : objects[row].entrySet()) {
+                order[i] = indexes.get(member.getKey());
+                columnOrder &= (i == 0 || order[i] > order[i - 1]) && !member.getValue().isJsonNull();
+                i++;
+            }
+            if (!columnOrder) {
+                keyOrders = keyOrders == null ? new int[objects.length][] : keyOrders;
+                keyOrders[row] = order;
+            }
+        }
+        return keyOrders;
+    }
+
+    private static int typeOf(JsonElement value) {
+        if (value.isJsonNull()) {
+            return 0;
+        }
+        if (!value.isJsonPrimitive()) {
+            return OTHER;
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isString()) {
+            return STRING;
+        }
+        if (!primitive.isNumber()) {
+            return OTHER;
+        }
+        String text = primitive.getAsString();
+        if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+            return DOUBLE;
+        }
+        try {
+            long number = Long.parseLong(text);
+            return number >= -MAX_EXACT && number <= MAX_EXACT ? LONG : DOUBLE;
+        } catch (NumberFormatException e) {
+            return DOUBLE;
+        }
+    }
+
+    // The same columns with the given rows, in that order
+    ColumnarArray view(int[] rows) {
+        return new ColumnarArray(columns, names, keyOrders, rowCount, rows);
+    }
+
+    // Row shown at a position of this view
+    int row(int position) {
+        return rows == null ? position : rows[position];
+    }
+
+    // The column of a field, null if no row has it
+    Column column(String field) {
+        return columns.get(field);
+    }
+
+    @Override
+    public TemplateModel get(int index) {
+        if (index < 0 || index >= size()) {
+            return null;
+        }
+        return new Row(this, row(index));
+    }
+
+    @Override
+    public int size() {
+        return rows == null ? rowCount : rows.length;
+    }
+
+    abstract static class Column {
+        // Null where the row has no value
+        abstract TemplateModel get(int row);
+
+        abstract boolean isMissing(int row);
+    }
+
+    // Integer values; missing rows are set in missing, which is null if there are none
+    static final class LongColumn extends Column {
+        final long[] values;
+        final BitSet missing;
+
+        private LongColumn(long[] values, BitSet missing) {
+            this.values = values;
+            this.missing = missing;
+        }
+
+        static LongColumn of(JsonObject[] objects, String field) {
+            long[] values = new long[objects.length];
+            BitSet missing = null;
+            for (int row = 0; row < objects.length; row++) {
+                JsonElement value = objects[row].get(field);
+                if (value == null || value.isJsonNull()) {
+                    missing = missing == null ? new BitSet(objects.length) : missing;
+                    missing.set(row);
+                } else {
+                    values[row] = value.getAsLong();
+                }
+            }
+            return new LongColumn(values, missing);
+        }
+
+        @Override
+        TemplateModel get(int row) {
+            return isMissing(row) ? null : new SimpleNumber((double) values[row]);
+        }
+
+        @Override
+        boolean isMissing(int row) {
+            return missing != null && missing.get(row);
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+        final double[] values;
+        final BitSet missing;
+
+        private DoubleColumn(double[] values, BitSet missing) {
+            this.values = values;
+            this.missing = missing;
+        }
+
+        static DoubleColumn of(JsonObject[] objects, String field) {
+            double[] values = new double[objects.length];
+            BitSet missing = null;
+            for (int row = 0; row < objects.length; row++) {
+                JsonElement value = objects[row].get(field);
+                if (value == null || value.isJsonNull()) {
+                    missing = missing == null ? new BitSet(objects.length) : missing;
+                    missing.set(row);
+                } else {
+                    values[row] = value.getAsDouble();
+                }
+            }
+            return new DoubleColumn(values, missing);
+        }
+
+        @Override
+        TemplateModel get(int row) {
+            return isMissing(row) ? null : new SimpleNumber(values[row]);
+        }
+
+        @Override
+        boolean isMissing(int row) {
+            return missing != null && missing.get(row);
+        }
+    }
+
+    // Each distinct string is stored and wrapped once; rows hold its code, -1 where missing
+    static final class StringColumn extends Column {
+        final int[] codes;
+        final String[] dictionary;
+        private final SimpleScalar[] scalars;
+
+        private StringColumn(int[] codes, String[] dictionary) {
+            this.codes = codes;
+            this.dictionary = dictionary;
+            this.scalars = new SimpleScalar[dictionary.length];
+            for (int code = 0; code < dictionary.length; code++) {
+                scalars[code] = new SimpleScalar(dictionary[code]);
+            }
+        }
+
+        static StringColumn of(JsonObject[] objects, String field) {
+            int[] codes = new int[objects.length];
+            Map<String, Integer> known = new HashMap<>();
+            List<String> dictionary = new ArrayList<>();
+            for (int row = 0; row < objects.length; row++) {
+                JsonElement value = objects[row].get(field);
+                if (value == null || value.isJsonNull()) {
+                    codes[row] = -1;
+                } else {
+                    String text = value.getAsString();
+                    Integer code = known.get(text);
+                    if (code == null) {
+                        code = dictionary.size();
+                        known.put(text, code);
+                        dictionary.add(text);
+                    }
+                    codes[row] = code;
+                }
+            }
+            return new StringColumn(codes, dictionary.toArray(new String[0]));
+        }
+
+        @Override
+        TemplateModel get(int row) {
+            int code = codes[row];
+            return code < 0 ? null : scalars[code];
+        }
+
+        @Override
+        boolean isMissing(int row) {
+            return codes[row] < 0;
+        }
+    }
+
+    static final class ElementColumn extends Column {
+        private final JsonElement[] values;
+        // Racing threads at worst wrap a value twice; the wrappers are equivalent
+        private volatile TemplateModel[] wrapped;
+
+        private ElementColumn(JsonElement[] values) {
+            this.values = values;
+        }
+
+        static ElementColumn of(JsonObject[] objects, String field) {
+            JsonElement[] values = new JsonElement[objects.length];
+            for (int row = 0; row < objects.length; row++) {
+                JsonElement value = objects[row].get(field);
+                values[row] = value == null || value.isJsonNull() ? null : value;
+            }
+            return new ElementColumn(values);
+        }
+
+        @Override
+        TemplateModel get(int row) {
+            if (values[row] == null) {
+                return null;
+            }
+            TemplateModel[] cache = wrapped;
+            if (cache == null) {
+                cache = new TemplateModel[values.length];
+                wrapped = cache;
+            }
+            TemplateModel value = cache[row];
+            if (value == null) {
+                value = JsonElementWrapper.wrapElement(values[row], true);
+                cache[row] = value;
+            }
+            return value;
+        }
+
+        @Override
+        boolean isMissing(int row) {
+            return values[row] == null;
+        }
+    }
+
+    // One element of the array, with the keys of its object in their order
+    private static final class Row implements TemplateHashModelEx2 {
+        private final ColumnarArray array;
+        private final int row;
+        private List<String> keys;
+
+        Row(ColumnarArray array, int row) {
+            this.array = array;
+            this.row = row;
+        }
+
+        @Override
+        public TemplateModel get(String key) {
+            Column column = array.columns.get(key);
+            return column == null ? null : column.get(row);
+        }
+
+        private List<String> presentKeys() {
+            if (keys == null) {
+                int[] order = array.keyOrders == null ? null : array.keyOrders[row];
+                List<String> present = new ArrayList<>(order != null ? order.length : array.names.length);
+                if (order != null) {
+                    for (int column : order) {
+                        present.add(array.names[column]);
+                    }
+                } else {
+                    for (String name : array.names) {
+                        if (!array.columns.get(name).isMissing(row)) {
+                            present.add(name);
+                        }
+                    }
+                }
+                keys = present;
+            }
+            return keys;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return presentKeys().isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return presentKeys().size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return () -> new Entries(presentKeys().iterator(), this, true);
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return () -> new Entries(presentKeys().iterator(), this, false);
+        }
+
+        @Override
+        public KeyValuePairIterator keyValuePairIterator() {
+            Iterator<String> keys = presentKeys().iterator();
+            return new KeyValuePairIterator() {
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public KeyValuePair next() {
+                    String key = keys.next();
+                    return new KeyValuePair() {
+                        @Override
+                        public TemplateModel getKey() {
+                            return new SimpleScalar(key);
+                        }
+
+                        @Override
+                        public TemplateModel getValue() {
+                            return get(key);
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static final class Entries implements TemplateModelIterator {
+        private final Iterator<String> keys;
+        private final Row row;
+        private final boolean returnKeys;
+
+        Entries(Iterator<String> keys, Row row, boolean returnKeys) {
+            this.keys = keys;
+            this.row = row;
+            this.returnKeys = returnKeys;
+        }
+
+        @Override
+        public TemplateModel next() {
+            String key = keys.next();
+            return returnKeys ? new SimpleScalar(key) : row.get(key);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return keys.hasNext();
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package com.example.core;
+
+import freemarker.core.Environment;
+import freemarker.core.MarkupOutputFormat;
+import freemarker.core.TemplateElement;
+import freemarker.core.TemplateNumberFormat;
+import freemarker.core.TemplateValueFormatException;
+import freemarker.core.TextBlock;
+import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleNumber;
+import freemarker.template.Template;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// --compiled: a parsed template flattened into a list of parts that render
+// without walking the FreeMarker AST. Top-level text becomes UTF-8 bytes
+// encoded once, written straight into a ChannelWriter. An interpolation of a
+// plain path with simple built-ins becomes a precomputed path:
+//   ${company.departments[0].name?upper_case}
+//   ${d.skills?join(", ")}   ${e.salary?string(",###")}   ${e.skills?size}
+// Paths are split into steps at compile time and shared prefixes are resolved
+// once per render. Built-ins supported: upper_case, lower_case, trim, size,
+// join and string with a literal argument. Everything else, directives and
+// other expressions alike, stays an element of the parsed template that the
+// interpreter renders in place (Environment.visit), with the same variables,
+// whitespace handling and <#ftl> header settings. So does an interpolation
+// whose value the fast path cannot format (a missing value, a date, a
+// boolean), so output and errors, line numbers included, are the interpreter's.
+// Templates that define macros or auto-escape are not compiled at all.
+public final class CompiledTemplate extends Template {
+    private static final String ATTRIBUTE = CompiledTemplate.class.getName();
+    private static final String DIRECTIVE = "__compiledTemplate";
+    // Parses the stub with the default syntax, whatever the template's own is
+    private static final Configuration STUB_PARSER = new Configuration(Configuration.VERSION_2_3_32);
+    // Renders its nested content, which Environment.visit makes the element to render
+    private static final TemplateDirectiveModel RENDER_ELEMENT = (env, params, loopVars, body) -> body.render(env.getOut());
+
+    private final Part[] parts;
+    private final PathTable paths;
+    private final TemplateDirectiveModel body = this::execute;
+
+    private CompiledTemplate(Template template, Part[] parts, PathTable paths) throws IOException {
+        super(template.getName(), template.getSourceName(), new StringReader("<@" + DIRECTIVE + "/>"),
+                template.getConfiguration(), STUB_PARSER, template.getEncoding());
+        this.parts = parts;
+        this.paths = paths;
+    }
+
+    // The compiled form of template, or template itself if it cannot be compiled;
+    // cached on the template, so a reloaded template is compiled again
+    public static Template compile(Template template) {
+        if (template instanceof CompiledTemplate) {
+            return template;
+        }
+        Object cached = template.getCustomAttribute(ATTRIBUTE);
+        if (cached instanceof Template) {
+            return (Template) cached;
+        }
+        Template compiled;
+        try {
+            compiled = new Compiler(template).compile();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Compiled mode not available for " + template.getName() + ", " + e.getMessage()
+                    + "; using the interpreter");
+            compiled = template;
+        }
+        template.setCustomAttribute(ATTRIBUTE, compiled);
+        return compiled;
+    }
+
+    // Number of parts rendered by the fast path and by the interpreter
+    public int[] partCounts() {
+        int[] counts = new int[2];
+        for (Part part : parts) {
+            counts[part instanceof Fragment ? 1 : 0]++;
+        }
+        return counts;
+    }
+
+    @Override
+    public void process(Object dataModel, Writer out) throws TemplateException, IOException {
+        Environment env = createProcessingEnvironment(dataModel, out);
+        env.setGlobalVariable(DIRECTIVE, body);
+        env.process();
+    }
+
+    @Override
+    public void process(Object dataModel, Writer out, ObjectWrapper wrapper)
+            throws TemplateException, IOException {
+        Environment env = createProcessingEnvironment(dataModel, out, wrapper);
+        env.setGlobalVariable(DIRECTIVE, body);
+        env.process();
+    }
+
+    private void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody unused)
+            throws TemplateException, IOException {
+        Writer out = env.getOut();
+        ChannelWriter encodedOut = out instanceof ChannelWriter ? (ChannelWriter) out : null;
+        TemplateModel[] resolved = new TemplateModel[paths.size()];
+        for (Part part : parts) {
+            if (part.write(env, out, encodedOut, resolved)) {
+                // A directive ran and may have assigned variables
+                Arrays.fill(resolved, null);
+            }
+        }
+    }
+
+    private interface Part {
+        // Returns true if the interpreter rendered a directive
+        boolean write(Environment env, Writer out, ChannelWriter encodedOut, TemplateModel[] resolved)
+                throws TemplateException, IOException;
+    }
+
+    private static final class Text implements Part {
+        private final String text;
+        private final byte[] encoded;
+
+        Text(String text) {
+            this.text = text;
+            this.encoded = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean write(Environment env, Writer out, ChannelWriter encodedOut, TemplateModel[] resolved)
+                throws IOException {
+            if (encodedOut != null) {
+                encodedOut.writeEncoded(encoded, 0, encoded.length);
+            } else {
+                out.write(text);
+            }
+            return false;
+        }
+    }
+
+    // An element of the parsed template, which the interpreter renders in place
+    private static final class Fragment implements Part {
+        private final TemplateElement element;
+        // Directives may set variables; interpolations cannot
+        private final boolean directive;
+
+        Fragment(TemplateElement element, boolean directive) {
+            this.element = element;
+            this.directive = directive;
+        }
+
+        @Override
+        public boolean write(Environment env, Writer out, ChannelWriter encodedOut, TemplateModel[] resolved)
+                throws TemplateException, IOException {
+            env.visit(element, RENDER_ELEMENT, Collections.emptyMap(), null);
+            return directive;
+        }
+    }
+
+    private static final class Value implements Part {
+        private final PathTable paths;
+        private final int path;
+        private final String[] builtIns;
+        private final String[] arguments;
+        private final Fragment fallback;
+
+        Value(PathTable paths, int path, String[] builtIns, String[] arguments, Fragment fallback) {
+            this.paths = paths;
+            this.path = path;
+            this.builtIns = builtIns;
+            this.arguments = arguments;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public boolean write(Environment env, Writer out, ChannelWriter encodedOut, TemplateModel[] resolved)
+                throws TemplateException, IOException {
+            String text = format(env, paths.resolve(path, env, resolved));
+            if (text == null) {
+                return fallback.write(env, out, encodedOut, resolved);
+            }
+            out.write(text);
+            return false;
+        }
+
+        // The interpolated text, or null where the interpreter has to decide
+        private String format(Environment env, TemplateModel model) throws TemplateException {
+            Object value = model;
+            for (int i = 0; i < builtIns.length && value != null; i++) {
+                value = apply(env, builtIns[i], arguments[i], value);
+            }
+            if (value instanceof String) {
+                return (String) value;
+            }
+            if (value instanceof TemplateScalarModel) {
+                return ((TemplateScalarModel) value).getAsString();
+            }
+            if (value instanceof TemplateNumberModel) {
+                return formatNumber(env, null, (TemplateNumberModel) value);
+            }
+            return null;
+        }
+
+        // Invalid formats are left to the interpreter to report
+        private static String formatNumber(Environment env, String pattern, TemplateNumberModel number)
+                throws TemplateException {
+            try {
+                TemplateNumberFormat format = pattern == null ? env.getTemplateNumberFormat()
+                        : env.getTemplateNumberFormat(pattern);
+                return format.formatToPlainText(number);
+            } catch (TemplateValueFormatException e) {
+                return null;
+            }
+        }
+
+        private static Object apply(Environment env, String builtIn, String argument, Object value)
+                throws TemplateException {
+            if (value instanceof TemplateScalarModel) {
+                value = ((TemplateScalarModel) value).getAsString();
+            }
+            switch (builtIn) {
+                case "upper_case":
+                    return value instanceof String ? ((String) value).toUpperCase(env.getLocale()) : null;
+                case "lower_case":
+                    return value instanceof String ? ((String) value).toLowerCase(env.getLocale()) : null;
+                case "trim":
+                    return value instanceof String ? ((String) value).trim() : null;
+                case "size":
+                    if (value instanceof TemplateSequenceModel) {
+                        return new SimpleNumber(((TemplateSequenceModel) value).size());
+                    }
+                    if (value instanceof TemplateHashModelEx) {
+                        return new SimpleNumber(((TemplateHashModelEx) value).size());
+                    }
+                    return null;
+                case "join":
+                    return value instanceof TemplateSequenceModel ? join((TemplateSequenceModel) value, argument) : null;
+                case "string":
+                    if (value instanceof TemplateNumberModel) {
+                        return formatNumber(env, argument, (TemplateNumberModel) value);
+                    }
+                    return value instanceof String ? value : null;
+                default:
+                    return null;
+            }
+        }
+
+        // Strings only; numbers, nulls and anything else go to the interpreter
+        private static String join(TemplateSequenceModel sequence, String separator) throws TemplateException {
+            StringBuilder joined = new StringBuilder();
+            int size = sequence.size();
+            for (int i = 0; i < size; i++) {
+                TemplateModel item = sequence.get(i);
+                if (!(item instanceof TemplateScalarModel)) {
+                    return null;
+                }
+                if (i > 0) {
+                    joined.append(separator);
+                }
+                joined.append(((TemplateScalarModel) item).getAsString());
+            }
+            return joined.toString();
+        }
+    }
+
+    // Every path prefix used by the template, once: company, company.departments,
+    // company.departments[0], ... Each render resolves a prefix at most once.
+    private static final class PathTable {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int[] parents = new int[16];
+        // Variable or key name, or Integer index
+        private Object[] steps = new Object[16];
+        private int size;
+
+        int add(List<Object> path) {
+            int id = -1;
+            StringBuilder key = new StringBuilder();
+            for (Object step : path) {
+                key.append(step instanceof Integer ? "[" + step + "]" : "." + step);
+                Integer existing = ids.get(key.toString());
+                if (existing == null) {
+                    if (size == parents.length) {
+                        parents = Arrays.copyOf(parents, size * 2);
+                        steps = Arrays.copyOf(steps, size * 2);
+                    }
+                    existing = size++;
+                    ids.put(key.toString(), existing);
+                    parents[existing] = id;
+                    steps[existing] = step;
+                }
+                id = existing;
+            }
+            return id;
+        }
+
+        int size() {
+            return size;
+        }
+
+        TemplateModel resolve(int id, Environment env, TemplateModel[] resolved) throws TemplateException {
+            TemplateModel model = resolved[id];
+            if (model != null) {
+                return model;
+            }
+            int parent = parents[id];
+            Object step = steps[id];
+            if (parent < 0) {
+                model = env.getVariable((String) step);
+            } else {
+                TemplateModel base = resolve(parent, env, resolved);
+                if (step instanceof Integer) {
+                    model = base instanceof TemplateSequenceModel ? ((TemplateSequenceModel) base).get((Integer) step) : null;
+                } else {
+                    model = base instanceof TemplateHashModel ? ((TemplateHashModel) base).get((String) step) : null;
+                }
+            }
+            resolved[id] = model;
+            return model;
+        }
+    }
+
+    private static final class Compiler {
+        private final Template template;
+        private final PathTable paths = new PathTable();
+        private final List<Part> parts = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+
+        Compiler(Template template) {
+            this.template = template;
+        }
+
+        CompiledTemplate compile() throws IOException {
+            if (!template.getMacros().isEmpty()) {
+                throw new IllegalArgumentException("it defines macros");
+            }
+            if (template.getAutoEscaping() && template.getOutputFormat() instanceof MarkupOutputFormat) {
+                throw new IllegalArgumentException("it auto-escapes its output");
+            }
+            TemplateElement root = template.getRootTreeNode();
+            if (root != null && root.getClass().getSimpleName().equals("MixedContent")) {
+                for (int i = 0; i < root.getChildCount(); i++) {
+                    add((TemplateElement) root.getChildAt(i));
+                }
+            } else if (root != null) {
+                add(root);
+            }
+            flushText();
+            return new CompiledTemplate(template, parts.toArray(new Part[0]), paths);
+        }
+
+        private void add(TemplateElement element) {
+            if (element instanceof TextBlock) {
+                // Whitespace stripping has already been applied to the block
+                String canonical = element.getCanonicalForm();
+                if (canonical.startsWith("<#noparse>") && canonical.endsWith("</#noparse>")) {
+                    canonical = canonical.substring("<#noparse>".length(), canonical.length() - "</#noparse>".length());
+                }
+                text.append(canonical);
+                return;
+            }
+            String kind = element.getClass().getSimpleName();
+            if (kind.equals("Comment")) {
+                return;
+            }
+            flushText();
+            boolean interpolation = kind.equals("DollarVariable") || kind.equals("NumericalOutput");
+            Fragment fragment = new Fragment(element, !interpolation);
+            if (kind.equals("DollarVariable")) {
+                String canonical = element.getCanonicalForm();
+                Value value = ExpressionParser.parse(canonical.substring(2, canonical.length() - 1), paths, fragment);
+                if (value != null) {
+                    parts.add(value);
+                    return;
+                }
+            }
+            parts.add(fragment);
+        }
+
+        private void flushText() {
+            if (text.length() > 0) {
+                parts.add(new Text(text.toString()));
+                text.setLength(0);
+            }
+        }
+    }
+
+    // name(.name|[0]|["key"])*(?builtin|?builtin("literal"))* in canonical form, or null
+    private static final class ExpressionParser {
+        private final String expression;
+        private int i;
+
+        private ExpressionParser(String expression) {
+            this.expression = expression;
+        }
+
+        static Value parse(String expression, PathTable paths, Fragment fallback) {
+            ExpressionParser parser = new ExpressionParser(expression.trim());
+            List<Object> path = new ArrayList<>();
+            String root = parser.identifier();
+            if (root == null || root.equals("true") || root.equals("false")) {
+                return null;
+            }
+            path.add(root);
+            while (parser.i < parser.expression.length()) {
+                char c = parser.expression.charAt(parser.i);
+                if (c == '.') {
+                    parser.i++;
+                    String name = parser.identifier();
+                    if (name == null) {
+                        return null;
+                    }
+                    path.add(name);
+                } else if (c == '[') {
+                    int close = parser.expression.indexOf(']', parser.i);
+                    if (close < 0) {
+                        return null;
+                    }
+                    String inner = parser.expression.substring(parser.i + 1, close).trim();
+                    if (inner.matches("\\d{1,9}")) {
+                        path.add(Integer.valueOf(inner));
+                    } else {
+                        String key = literal(inner);
+                        if (key == null) {
+                            return null;
+                        }
+                        path.add(key);
+                    }
+                    parser.i = close + 1;
+                } else {
+                    break;
+                }
+            }
+
+            List<String> builtIns = new ArrayList<>();
+            List<String> arguments = new ArrayList<>();
+            while (parser.i < parser.expression.length()) {
+                if (parser.expression.charAt(parser.i) != '?') {
+                    return null;
+                }
+                parser.i++;
+                String builtIn = parser.identifier();
+                if (builtIn == null) {
+                    return null;
+                }
+                String argument = null;
+                if (parser.i < parser.expression.length() && parser.expression.charAt(parser.i) == '(') {
+                    int close = parser.expression.indexOf(')', parser.i);
+                    argument = close < 0 ? null : literal(parser.expression.substring(parser.i + 1, close).trim());
+                    if (argument == null) {
+                        return null;
+                    }
+                    parser.i = close + 1;
+                }
+                boolean takesArgument = builtIn.equals("join") || builtIn.equals("string");
+                boolean known = takesArgument || builtIn.equals("upper_case") || builtIn.equals("lower_case")
+                        || builtIn.equals("trim") || builtIn.equals("size");
+                if (!known || takesArgument != (argument != null)) {
+                    return null;
+                }
+                builtIns.add(builtIn);
+                arguments.add(argument);
+            }
+            return new Value(paths, paths.add(path), builtIns.toArray(new String[0]), arguments.toArray(new String[0]),
+                    fallback);
+        }
+
+        private String identifier() {
+            int start = i;
+            while (i < expression.length()
+                    && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_')) {
+                i++;
+            }
+            if (i == start || Character.isDigit(expression.charAt(start))) {
+                return null;
+            }
+            return expression.substring(start, i);
+        }
+
+        // A quoted string without escapes or interpolations, or null
+        private static String literal(String quoted) {
+            if (quoted.length() < 2) {
+                return null;
+            }
+            char quote = quoted.charAt(0);
+            if ((quote != '"' && quote != '\'') || quoted.charAt(quoted.length() - 1) != quote) {
+                return null;
+            }
+            String value = quoted.substring(1, quoted.length() - 1);
+            if (value.indexOf(quote) >= 0 || value.indexOf('\\') >= 0 || value.contains("${") || value.contains("#{")) {
+                return null;
+            }
+            return value;
+        }
+    }
+}
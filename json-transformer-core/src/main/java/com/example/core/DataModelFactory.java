@@ -0,0 +1,25 @@
+package com.example.core;
+
+import freemarker.template.TemplateException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Builds the data model for one source document. Called from worker threads,
+// so every invocation must return a model that is not shared with other calls.
+// A model itself may be rendered by several templates at once (--fan-out), so
+// anything it computes lazily must be safe to fill from several threads.
+public interface DataModelFactory {
+    Object create(byte[] content) throws IOException, TemplateException;
+
+    default Object create(Path source) throws IOException, TemplateException {
+        byte[] content;
+        try (Metrics.Span span = Metrics.start("read")) {
+            content = Files.readAllBytes(source);
+        }
+        try (Metrics.Span span = Metrics.start("parse")) {
+            return create(content);
+        }
+    }
+}
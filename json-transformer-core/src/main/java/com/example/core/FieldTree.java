@@ -0,0 +1,124 @@
+package com.example.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The parts of a JSON document a template can reach, as a tree of object keys
+// and array indexes. A node is either needed whole ("full"), needed only for
+// its shape ("shape": the length of an array, for ?size and ?has_content),
+// or needed only for the children listed under it. anyIndex stands for every
+// element of an array, as reached through a <#list> loop variable.
+// Built by one thread; once scanned, a tree is only read, by every worker of
+// a batch at once. The one thing filled in while reading, the merged children
+// of index(), goes into a concurrent map.
+public final class FieldTree {
+    // Path segment matching every array element
+    public static final Object ANY_INDEX = new Object() {
+        @Override
+        public String toString() {
+            return "[*]";
+        }
+    };
+
+    private boolean full;
+    private boolean shape;
+    private final Map<String, FieldTree> keys = new LinkedHashMap<>();
+    private final Map<Integer, FieldTree> indexes = new HashMap<>();
+    private FieldTree anyIndex;
+    private final Map<Integer, FieldTree> merged = new ConcurrentHashMap<>();
+
+    // Mark the node at path (String keys, Integer indexes or ANY_INDEX) as needed whole, or for its shape only
+    public void add(List<Object> path, boolean shapeOnly) {
+        FieldTree node = this;
+        for (Object segment : path) {
+            if (node.full) {
+                return;
+            }
+            node = node.childFor(segment);
+        }
+        if (shapeOnly) {
+            node.shape = true;
+        } else {
+            node.full = true;
+        }
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean isShape() {
+        return shape;
+    }
+
+    // Child for an object key, or null if nothing below that key is needed
+    public FieldTree key(String name) {
+        return keys.get(name);
+    }
+
+    // Child for an array element: the specific index merged with anyIndex, or null if the element is not needed
+    public FieldTree index(int index) {
+        FieldTree specific = indexes.get(index);
+        if (specific == null || anyIndex == null) {
+            return specific != null ? specific : anyIndex;
+        }
+        return merged.computeIfAbsent(index, i -> merge(specific, anyIndex));
+    }
+
+    private FieldTree childFor(Object segment) {
+        if (segment == ANY_INDEX) {
+            if (anyIndex == null) {
+                anyIndex = new FieldTree();
+            }
+            return anyIndex;
+        }
+        if (segment instanceof Integer) {
+            return indexes.computeIfAbsent((Integer) segment, i -> new FieldTree());
+        }
+        return keys.computeIfAbsent((String) segment, k -> new FieldTree());
+    }
+
+    private static FieldTree merge(FieldTree a, FieldTree b) {
+        FieldTree result = new FieldTree();
+        result.full = a.full || b.full;
+        result.shape = a.shape || b.shape;
+        if (result.full) {
+            return result;
+        }
+        a.keys.forEach((name, child) -> result.keys.put(name, child));
+        b.keys.forEach((name, child) -> result.keys.merge(name, child, FieldTree::merge));
+        a.indexes.forEach((index, child) -> result.indexes.put(index, child));
+        b.indexes.forEach((index, child) -> result.indexes.merge(index, child, FieldTree::merge));
+        if (a.anyIndex == null || b.anyIndex == null) {
+            result.anyIndex = a.anyIndex != null ? a.anyIndex : b.anyIndex;
+        } else {
+            result.anyIndex = merge(a.anyIndex, b.anyIndex);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, "");
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb, String prefix) {
+        if (full) {
+            sb.append(prefix.isEmpty() ? "(all)" : prefix).append('\n');
+            return;
+        }
+        if (shape) {
+            sb.append(prefix).append("?size\n");
+        }
+        keys.forEach((name, child) -> child.append(sb, prefix.isEmpty() ? name : prefix + "." + name));
+        indexes.forEach((index, child) -> child.append(sb, prefix + "[" + index + "]"));
+        if (anyIndex != null) {
+            anyIndex.append(sb, prefix + ANY_INDEX);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Output file written through a FileChannel. Output that is not committed
+// never costs the previous content of the target. Non-atomic output to a new
+// target goes straight to it and is deleted if not committed; an existing
+// regular file, and every target of atomic output, is written to a temporary
+// file next to the target that is renamed over it on commit. Other existing
+// targets (a device, a pipe) are written in place and never deleted.
+class FileOutputSink implements OutputSink {
+    private final Path target;
+    private final boolean atomic;
+
+    FileOutputSink(Path target, boolean atomic) {
+        this.target = target;
+        this.atomic = atomic;
+    }
+
+    @Override
+    public Output open() throws IOException {
+        FileChannel channel = null;
+        boolean replace = atomic;
+        boolean created = false;
+        if (!atomic) {
+            try {
+                channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+                created = true;
+            } catch (FileAlreadyExistsException e) {
+                if (Files.isRegularFile(target)) {
+                    // Keep the previous output until this one is complete
+                    replace = true;
+                } else {
+                    channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+            }
+        }
+        Path file = target;
+        if (replace) {
+            Path dir = target.toAbsolutePath().getParent();
+            file = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+            try {
+                if (Files.isRegularFile(target)) {
+                    // A temporary file is private to its owner; the replacement keeps the target's permissions
+                    keepPermissions(file);
+                }
+                channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                // The target is left as it was, but the temporary file would otherwise be orphaned
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+        Path written = file;
+        boolean temporary = replace;
+        // Only a file this output created may be deleted when it is not committed
+        boolean discardable = replace || created;
+        ChannelWriter writer = new ChannelWriter(channel, true);
+
+        return new Output() {
+            private boolean committed;
+
+            @Override
+            public ChannelWriter writer() {
+                return writer;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                writer.close();
+                if (temporary) {
+                    try {
+                        Files.move(written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(written, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                committed = true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (committed) {
+                    return;
+                }
+                try {
+                    writer.close();
+                } finally {
+                    if (discardable) {
+                        Files.deleteIfExists(written);
+                    }
+                }
+            }
+        };
+    }
+
+    private void keepPermissions(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, Files.getPosixFilePermissions(target));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.core;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// A batch that renders only what changed since the last run (--incremental):
+// each source's inputs are hashed (the template and every template it
+// includes or imports, the adapter's configuration, the source) and compared
+// with the TransformManifest, and only sources whose hash or output file
+// differs are rendered. --watch then keeps running and repeats this whenever
+// a source or one of the templates changes, as reported by a WatchService on
+// their directories. A template change re-renders every source; a source
+// change only that source.
+public final class IncrementalTransformer {
+    private static final Pattern COMMENT = Pattern.compile("<#--.*?-->", Pattern.DOTALL);
+    // Canonical form of <#include "name"> and <#import "name" as ns>; a name that is not a plain literal is dynamic
+    private static final Pattern DEPENDENCY = Pattern.compile("<#(?:include|import)\\s+(?:\"([^\"\\\\$]*)\")?");
+    // Events of one save often come in bursts; wait until the directories have been quiet this long
+    private static final long SETTLE_MS = 200;
+
+    private final TransformOptions options;
+    private final SourceAdapter adapter;
+    private final Configuration cfg;
+    private final Path templateDir;
+    private final String templateName;
+    private final Path targetDir;
+    private final TransformManifest manifest;
+    private final String configHash;
+
+    private Template renderTemplate;
+    private DataModelFactory modelFactory;
+    private Set<Path> templateFiles;
+    private boolean dynamicDependencies;
+    private String templateHash;
+    private boolean prepared;
+
+    public IncrementalTransformer(TransformOptions options, SourceAdapter adapter, Configuration cfg,
+                                  Path templateDir, String templateName) throws IOException {
+        this.options = options;
+        this.adapter = adapter;
+        this.cfg = cfg;
+        this.templateDir = templateDir.toAbsolutePath().normalize();
+        this.templateName = templateName;
+        this.targetDir = Paths.get(options.getTargetPath());
+        this.manifest = TransformManifest.load(options.getManifestPath() != null
+                ? Paths.get(options.getManifestPath()) : targetDir.resolve(".transform-manifest.json"));
+        this.configHash = TransformManifest.hash(adapter.fingerprint(options));
+        loadTemplate();
+    }
+
+    // Render the sources that changed; returns the number that failed
+    public int run() throws IOException, TemplateException {
+        long start = System.nanoTime();
+        List<Path> sources = SourceResolver.resolve(options.getSourcePath(), adapter.defaultGlob());
+        for (Path source : sources) {
+            Path parent = source.toAbsolutePath().getParent();
+            if (parent != null && Files.exists(targetDir) && Files.isSameFile(parent, targetDir)) {
+                throw new IOException("Target directory must differ from source directory: " + targetDir);
+            }
+        }
+        Files.createDirectories(targetDir);
+
+        String inputBase = TransformManifest.hash(templateHash, configHash);
+        Map<Path, Pending> changed = new ConcurrentHashMap<>();
+        List<Path> toRender = new ArrayList<>();
+        boolean dirty = manifest.retain(sources);
+        for (Path source : sources) {
+            TransformManifest.Stamp stamp = TransformManifest.Stamp.of(source);
+            if (stamp == null) {
+                continue;
+            }
+            TransformManifest.Entry entry = manifest.get(source);
+            String sourceHash = entry == null ? null : entry.sourceHash(stamp);
+            boolean rehashed = sourceHash == null;
+            if (rehashed) {
+                sourceHash = TransformManifest.hash(source);
+            }
+            String input = TransformManifest.hash(inputBase, sourceHash);
+            Path target = SourceResolver.targetFor(source, targetDir);
+            TransformManifest.Stamp targetStamp = TransformManifest.Stamp.of(target);
+            if (entry != null && entry.isCurrent(input, target, targetStamp)) {
+                if (rehashed) {
+                    // Touched but not changed: remember the new stamp so it is not hashed again
+                    manifest.put(source, new TransformManifest.Entry(sourceHash, stamp, input, target,
+                            entry.output, targetStamp));
+                    dirty = true;
+                }
+                continue;
+            }
+            changed.put(source, new Pending(stamp, sourceHash, input, target));
+            toRender.add(source);
+        }
+
+        int failed = 0;
+        if (!toRender.isEmpty()) {
+            if (!prepared) {
+                adapter.beforeBatch(renderTemplate);
+                prepared = true;
+            }
+            try (ParallelTransformer transformer = new ParallelTransformer(renderTemplate, modelFactory,
+                    options.getThreads(), options.getQueueCapacity(), options.isVirtualThreads(), options.isAtomic())) {
+                failed = transformer.transformEach(toRender, targetDir, source -> record(source, changed.get(source)));
+            }
+            dirty = true;
+        }
+        if (dirty) {
+            manifest.save();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Transformed " + (toRender.size() - failed) + " of " + toRender.size()
+                + " changed sources to " + targetDir + " in " + elapsedMs + " ms (" + (sources.size() - toRender.size())
+                + " unchanged)");
+        return failed;
+    }
+
+    // Re-run whenever a source or template changes, until the thread is interrupted
+    public void watch() throws IOException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Set<Path> watched = new HashSet<>();
+            register(watcher, watched);
+            System.err.println("Watching " + watched.size() + " directories for changes");
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                try {
+                    WatchKey key = watcher.take();
+                    do {
+                        collect(key, changed);
+                    } while ((key = watcher.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    if (templateFiles == null || changed.stream().anyMatch(this::isTemplate)) {
+                        loadTemplate();
+                    }
+                    run();
+                    register(watcher, watched);
+                } catch (IOException | TemplateException e) {
+                    System.err.println("Error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Parse the template afresh and hash it together with everything it includes or imports
+    private void loadTemplate() throws IOException {
+        // Stays null if loading fails, so the next change of anything retries
+        templateFiles = null;
+        cfg.clearTemplateCache();
+        Template template;
+        try (Metrics.Span span = Metrics.start("template")) {
+            template = cfg.getTemplate(templateName);
+        }
+        Set<String> names = new TreeSet<>();
+        names.add(template.getName());
+        dynamicDependencies = false;
+        Deque<Template> pending = new ArrayDeque<>();
+        pending.push(template);
+        while (!pending.isEmpty()) {
+            Template next = pending.pop();
+            String canonical = COMMENT.matcher(next.getRootTreeNode().getCanonicalForm()).replaceAll("");
+            Matcher matcher = DEPENDENCY.matcher(canonical);
+            while (matcher.find()) {
+                String name = matcher.group(1) == null ? null : resolve(next.getName(), matcher.group(1));
+                if (name == null) {
+                    dynamicDependencies = true;
+                } else if (names.add(name)) {
+                    pending.push(cfg.getTemplate(name));
+                }
+            }
+        }
+        if (dynamicDependencies) {
+            // Any template in the directory may be included; hash them all
+            names.addAll(TemplateWarmUp.templateNames(templateDir));
+        }
+
+        List<String> parts = new ArrayList<>();
+        Set<Path> files = new HashSet<>();
+        for (String name : names) {
+            Path file = templateDir.resolve(name).normalize();
+            files.add(file);
+            parts.add(name);
+            parts.add(TransformManifest.hash(file));
+        }
+        templateHash = TransformManifest.hash(parts.toArray(new String[0]));
+        templateFiles = files;
+        modelFactory = adapter.modelFactory(template);
+        renderTemplate = options.isCompiled() ? CompiledTemplate.compile(template) : template;
+        prepared = false;
+    }
+
+    // Name of an included template relative to the including one, as the
+    // template loader sees it; null for acquisition ("*/") and other forms
+    // that cannot be resolved statically
+    private static String resolve(String base, String name) {
+        if (name.contains("*") || name.contains("://")) {
+            return null;
+        }
+        String path = name.startsWith("/") ? name.substring(1) : base.substring(0, base.lastIndexOf('/') + 1) + name;
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.removeLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    // Output written for a source: record its hash, so the next run can skip it
+    private void record(Path source, Pending pending) {
+        try {
+            TransformManifest.Stamp outputStamp = TransformManifest.Stamp.of(pending.target);
+            if (outputStamp != null) {
+                manifest.put(source, new TransformManifest.Entry(pending.sourceHash, pending.stamp, pending.input,
+                        pending.target, TransformManifest.hash(pending.target), outputStamp));
+            }
+        } catch (IOException e) {
+            manifest.remove(source);
+            System.err.println("Error hashing output of " + source + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isTemplate(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        return templateFiles.contains(normalized) || dynamicDependencies && normalized.startsWith(templateDir)
+                && normalized.getFileName().toString().matches(".*\\.ftl[hx]?");
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; treat it as a template change, which checks everything
+                templateFiles = null;
+            } else {
+                changed.add(dir.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+    }
+
+    // Watch the directories of the sources, the source list and the templates; new ones are added as they appear
+    private void register(WatchService watcher, Set<Path> watched) throws IOException {
+        Set<Path> dirs = new HashSet<>();
+        String spec = options.getSourcePath();
+        if (spec.startsWith("@")) {
+            dirs.add(Paths.get(spec.substring(1)).toAbsolutePath().getParent());
+        } else if (spec.contains("*") || spec.contains("?") || spec.contains("{")) {
+            int slash = spec.lastIndexOf('/');
+            dirs.add(Paths.get(slash >= 0 ? spec.substring(0, slash + 1) : ".").toAbsolutePath());
+        } else {
+            dirs.add(Paths.get(spec).toAbsolutePath());
+        }
+        for (Path source : SourceResolver.list(spec, adapter.defaultGlob())) {
+            dirs.add(source.toAbsolutePath().getParent());
+        }
+        if (templateFiles == null || dynamicDependencies) {
+            try (Stream<Path> files = Files.walk(templateDir)) {
+                files.filter(Files::isDirectory).forEach(dirs::add);
+            }
+        } else {
+            for (Path file : templateFiles) {
+                dirs.add(file.getParent());
+            }
+        }
+        for (Path dir : dirs) {
+            Path normalized = dir.normalize();
+            if (Files.isDirectory(normalized) && watched.add(normalized)) {
+                normalized.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private static final class Pending {
+        final TransformManifest.Stamp stamp;
+        final String sourceHash;
+        final String input;
+        final Path target;
+
+        Pending(TransformManifest.Stamp stamp, String sourceHash, String input, Path target) {
+            this.stamp = stamp;
+            this.sourceHash = sourceHash;
+            this.input = input;
+            this.target = target;
+        }
+    }
+}
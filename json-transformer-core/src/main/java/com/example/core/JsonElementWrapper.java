@@ -0,0 +1,245 @@
+package com.example.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateSequenceModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Object wrapper that exposes a Gson tree to templates as it is, instead of
+// converting it to Maps and Lists first. Objects and arrays become hash and
+// sequence models that wrap a child only when a template reads it, and keep
+// the wrapper for the next read. Numbers are exposed as doubles, like
+// gson.fromJson(json, Map.class) produces, so the output does not change.
+// Anything that is not a JsonElement is wrapped as DefaultObjectWrapper would.
+// The caches may be filled from several threads at once, as in --fan-out.
+// With columnar, arrays of objects are exposed as ColumnarArrays instead.
+public class JsonElementWrapper extends DefaultObjectWrapper {
+    private final boolean columnar;
+
+    public JsonElementWrapper() {
+        this(false);
+    }
+
+    public JsonElementWrapper(boolean columnar) {
+        super(Configuration.VERSION_2_3_32);
+        this.columnar = columnar;
+    }
+
+    // Parse UTF-8 JSON into a root hash; the document must be a JSON object
+    public static TemplateHashModel parse(byte[] content) throws IOException, TemplateModelException {
+        return parse(content, false);
+    }
+
+    public static TemplateHashModel parse(byte[] content, boolean columnar) throws IOException, TemplateModelException {
+        JsonElement document;
+        try {
+            document = JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON: " + e.getMessage(), e);
+        }
+        return wrapDocument(document, columnar);
+    }
+
+    public static TemplateHashModel wrapDocument(JsonElement document) throws TemplateModelException {
+        return wrapDocument(document, false);
+    }
+
+    public static TemplateHashModel wrapDocument(JsonElement document, boolean columnar) throws TemplateModelException {
+        if (!document.isJsonObject()) {
+            throw new TemplateModelException("The JSON document must be an object to be used as the data model");
+        }
+        return new ObjectModel(document.getAsJsonObject(), columnar);
+    }
+
+    @Override
+    public TemplateModel wrap(Object obj) throws TemplateModelException {
+        if (obj instanceof JsonElement) {
+            return wrapElement((JsonElement) obj, columnar);
+        }
+        return super.wrap(obj);
+    }
+
+    static TemplateModel wrapElement(JsonElement element, boolean columnar) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (element.isJsonObject()) {
+            return new ObjectModel(element.getAsJsonObject(), columnar);
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            if (columnar && ColumnarArray.isColumnar(array)) {
+                return ColumnarArray.of(array);
+            }
+            return new ArrayModel(array, columnar);
+        }
+        JsonPrimitive primitive = element.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return primitive.getAsBoolean() ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+        if (primitive.isNumber()) {
+            return new SimpleNumber(primitive.getAsDouble());
+        }
+        return new SimpleScalar(primitive.getAsString());
+    }
+
+    static final class ObjectModel implements TemplateHashModelEx2 {
+        // Cached in place of a missing or null member, which the map cannot hold
+        private static final TemplateModel MISSING = new SimpleScalar("");
+
+        private final JsonObject object;
+        private final boolean columnar;
+        private volatile Map<String, TemplateModel> wrapped;
+
+        ObjectModel(JsonObject object, boolean columnar) {
+            this.object = object;
+            this.columnar = columnar;
+        }
+
+        @Override
+        public TemplateModel get(String key) {
+            Map<String, TemplateModel> cache = wrapped;
+            if (cache == null) {
+                // A racing thread may replace it; that only loses cached wrappers
+                cache = new ConcurrentHashMap<>();
+                wrapped = cache;
+            } else {
+                TemplateModel cached = cache.get(key);
+                if (cached != null) {
+                    return cached == MISSING ? null : cached;
+                }
+            }
+            TemplateModel value = wrapElement(object.get(key), columnar);
+            cache.put(key, value == null ? MISSING : value);
+            return value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return object.size() == 0;
+        }
+
+        @Override
+        public int size() {
+            return object.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return () -> new Entries(object.keySet().iterator(), this, true);
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return () -> new Entries(object.keySet().iterator(), this, false);
+        }
+
+        @Override
+        public KeyValuePairIterator keyValuePairIterator() {
+            Iterator<String> keys = object.keySet().iterator();
+            return new KeyValuePairIterator() {
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public KeyValuePair next() {
+                    String key = keys.next();
+                    return new KeyValuePair() {
+                        @Override
+                        public TemplateModel getKey() {
+                            return new SimpleScalar(key);
+                        }
+
+                        @Override
+                        public TemplateModel getValue() {
+                            return get(key);
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    // Iterates the keys of an object, or the values through the object's cache
+    private static final class Entries implements TemplateModelIterator {
+        private final Iterator<String> keys;
+        private final ObjectModel object;
+        private final boolean returnKeys;
+
+        Entries(Iterator<String> keys, ObjectModel object, boolean returnKeys) {
+            this.keys = keys;
+            this.object = object;
+            this.returnKeys = returnKeys;
+        }
+
+        @Override
+        public TemplateModel next() {
+            String key = keys.next();
+            return returnKeys ? new SimpleScalar(key) : object.get(key);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return keys.hasNext();
+        }
+    }
+
+    static final class ArrayModel implements TemplateSequenceModel {
+        private final JsonArray array;
+        private final boolean columnar;
+        // Racing threads at worst wrap an element twice; the wrappers are equivalent
+        private volatile TemplateModel[] wrapped;
+
+        ArrayModel(JsonArray array, boolean columnar) {
+            this.array = array;
+            this.columnar = columnar;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            if (index < 0 || index >= array.size()) {
+                return null;
+            }
+            TemplateModel[] cache = wrapped;
+            if (cache == null) {
+                cache = new TemplateModel[array.size()];
+                wrapped = cache;
+            }
+            TemplateModel value = cache[index];
+            if (value == null) {
+                value = wrapElement(array.get(index), columnar);
+                cache[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return array.size();
+        }
+    }
+}
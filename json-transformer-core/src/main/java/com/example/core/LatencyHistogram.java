@@ -0,0 +1,117 @@
+package com.example.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram in nanoseconds with HdrHistogram-style
+// log-linear buckets: each power of two is split into 16 sub-buckets, so a
+// recorded value is off by at most 1/16 (6%). Values from 1 ns to about
+// 18 minutes are kept; longer ones land in the last bucket. Recording is
+// striped over several arrays by thread, so busy worker threads rarely share
+// a cache line.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    // Per stripe: BUCKETS counts, then sum and max
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    // 16 longs apart, so stripes never share a cache line
+    private static final int STRIDE = BUCKETS + 16;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+
+    LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(16, Runtime.getRuntime().availableProcessors())));
+        this.stripeMask = stripes - 1;
+        this.counts = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int base = ((int) Thread.currentThread().getId() & stripeMask) * STRIDE;
+        counts.incrementAndGet(base + bucket(nanos));
+        counts.addAndGet(base + SUM, nanos);
+        long max;
+        while (nanos > (max = counts.get(base + MAX)) && !counts.compareAndSet(base + MAX, max, nanos)) {
+            // retry
+        }
+    }
+
+    Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int base = 0; base < counts.length(); base += STRIDE) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = counts.get(base + i);
+                buckets[i] += bucketCount;
+                count += bucketCount;
+            }
+            sum += counts.get(base + SUM);
+            max = Math.max(max, counts.get(base + MAX));
+        }
+        return new Snapshot(buckets, count, sum, max);
+    }
+
+    // Values below 16 get a bucket each; above, the exponent picks the row and the next 4 bits the column
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Upper bound of the values in a bucket
+    private static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    static final class Snapshot {
+        private final long[] buckets;
+        final long count;
+        final long sum;
+        final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        // Value at a quantile (0..1), in nanoseconds
+        long quantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketLimit(i), max);
+                }
+            }
+            return max;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
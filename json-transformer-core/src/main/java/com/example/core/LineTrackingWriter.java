@@ -0,0 +1,59 @@
+package com.example.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Forwards to the target writer and remembers whether the last character was a
+// newline, so line-oriented outputs can terminate each rendered record exactly once
+public class LineTrackingWriter extends Writer {
+    private final Writer out;
+    private boolean atLineStart = true;
+
+    public LineTrackingWriter(Writer out) {
+        this.out = out;
+    }
+
+    // Start a new record; an empty record does not get a newline
+    public void reset() {
+        atLineStart = true;
+    }
+
+    // Terminate the current record with a newline unless it already ends with one
+    public void endLine() throws IOException {
+        if (!atLineStart) {
+            write('\n');
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(c);
+        atLineStart = c == '\n';
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) throws IOException {
+        if (len > 0) {
+            out.write(buf, off, len);
+            atLineStart = buf[off + len - 1] == '\n';
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        if (len > 0) {
+            out.write(str, off, len);
+            atLineStart = str.charAt(off + len - 1) == '\n';
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
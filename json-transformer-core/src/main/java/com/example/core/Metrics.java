@@ -0,0 +1,266 @@
+package com.example.core;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import jdk.jfr.EventType;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-stage timing for every transform, switched on with --metrics <file>:
+//   read     reading a source file
+//   parse    parsing a source into the data model
+//   template getting the compiled template from the Configuration
+//   render   template.process, including the functions and writes below
+//   write    writing rendered output to its file, stream or buffer
+//   commit   closing the output, and the rename of an --atomic file
+//   function:<name>  one call of a template function
+// Each stage records a latency histogram, its call count and the bytes the
+// calling thread allocated during it. Stages nest, so render includes write
+// and the functions. Results are written to the file on exit, as JSON for a
+// .json file and Prometheus text otherwise, served on /metrics by the HTTP
+// server, and emitted as StageEvent JFR events during a flight recording.
+// When switched off a span is a shared no-op.
+public final class Metrics {
+    private static final List<String> STAGE_ORDER = Arrays.asList("read", "parse", "template", "render", "write", "commit");
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Span NOOP = new Span(null);
+    private static volatile boolean enabled;
+
+    private Metrics() {
+    }
+
+    // Enable metrics if the options ask for them, and write them out on exit
+    public static void configure(TransformOptions options) {
+        String path = options.getMetricsPath();
+        if (path == null) {
+            return;
+        }
+        enable();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (path.equals("-")) {
+                    System.err.print(toPrometheus());
+                } else {
+                    write(Paths.get(path));
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing metrics to " + path + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    // Start timing a stage: try (Metrics.Span span = Metrics.start("parse")) { ... }
+    public static Span start(String stage) {
+        return enabled ? timer(stage).start() : NOOP;
+    }
+
+    public static void write(Path file) throws IOException {
+        String text = file.getFileName().toString().endsWith(".json") ? toJson() : toPrometheus();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String toJson() {
+        JsonObject stages = new JsonObject();
+        for (Timer timer : sortedTimers()) {
+            LatencyHistogram.Snapshot snapshot = timer.histogram.snapshot();
+            long allocated = timer.allocatedBytes.sum();
+            JsonObject stage = new JsonObject();
+            stage.addProperty("count", snapshot.count);
+            stage.addProperty("totalMs", snapshot.sum / 1e6);
+            stage.addProperty("meanUs", snapshot.mean() / 1e3);
+            stage.addProperty("p50Us", snapshot.quantile(0.5) / 1e3);
+            stage.addProperty("p90Us", snapshot.quantile(0.9) / 1e3);
+            stage.addProperty("p99Us", snapshot.quantile(0.99) / 1e3);
+            stage.addProperty("p999Us", snapshot.quantile(0.999) / 1e3);
+            stage.addProperty("maxUs", snapshot.max / 1e3);
+            stage.addProperty("allocatedBytes", allocated);
+            stage.addProperty("allocatedBytesPerCall", snapshot.count == 0 ? 0 : allocated / snapshot.count);
+            stages.add(timer.name, stage);
+        }
+        JsonObject root = new JsonObject();
+        root.add("stages", stages);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root) + "\n";
+    }
+
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP transform_stage_seconds Time spent in each transform stage\n");
+        text.append("# TYPE transform_stage_seconds summary\n");
+        List<Timer> timers = sortedTimers();
+        for (Timer timer : timers) {
+            LatencyHistogram.Snapshot snapshot = timer.histogram.snapshot();
+            String label = label(timer);
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                text.append("transform_stage_seconds{").append(label).append(",quantile=\"").append(quantile)
+                        .append("\"} ").append(seconds(snapshot.quantile(quantile))).append('\n');
+            }
+            text.append("transform_stage_seconds_sum{").append(label).append("} ").append(seconds(snapshot.sum)).append('\n');
+            text.append("transform_stage_seconds_count{").append(label).append("} ").append(snapshot.count).append('\n');
+        }
+        text.append("# HELP transform_stage_allocated_bytes_total Bytes allocated by the calling thread in each stage\n");
+        text.append("# TYPE transform_stage_allocated_bytes_total counter\n");
+        for (Timer timer : timers) {
+            text.append("transform_stage_allocated_bytes_total{").append(label(timer)).append("} ")
+                    .append(timer.allocatedBytes.sum()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String label(Timer timer) {
+        return "stage=\"" + timer.name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    // Pipeline stages in pipeline order, then functions by name
+    private static List<Timer> sortedTimers() {
+        List<Timer> timers = new ArrayList<>(TIMERS.values());
+        timers.sort((a, b) -> {
+            int orderA = STAGE_ORDER.indexOf(a.name);
+            int orderB = STAGE_ORDER.indexOf(b.name);
+            if (orderA >= 0 || orderB >= 0) {
+                return Integer.compare(orderA < 0 ? Integer.MAX_VALUE : orderA, orderB < 0 ? Integer.MAX_VALUE : orderB);
+            }
+            return a.name.compareTo(b.name);
+        });
+        return timers;
+    }
+
+    public static final class Timer {
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public Span start() {
+            return enabled ? new Span(this) : NOOP;
+        }
+    }
+
+    public static final class Span implements AutoCloseable {
+        private final Timer timer;
+        private final long startNanos;
+        private final long startAllocated;
+        private final StageEvent event;
+
+        private Span(Timer timer) {
+            this.timer = timer;
+            if (timer == null) {
+                this.startNanos = 0;
+                this.startAllocated = 0;
+                this.event = null;
+                return;
+            }
+            if (Jfr.TYPE.isEnabled()) {
+                this.event = new StageEvent();
+                this.event.begin();
+            } else {
+                this.event = null;
+            }
+            this.startAllocated = Allocation.current();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (timer == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = Allocation.current() - startAllocated;
+            timer.histogram.record(nanos);
+            timer.allocatedBytes.add(allocated);
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = timer.name;
+                    event.allocatedBytes = allocated;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    // Loaded with the first span, so JFR is only touched when metrics are on
+    private static final class Jfr {
+        static final EventType TYPE = EventType.getEventType(StageEvent.class);
+    }
+
+    // Bytes allocated by the current thread so far, or 0 where the JVM cannot tell
+    private static final class Allocation {
+        private static final MethodHandle CURRENT = currentThreadAllocatedBytes();
+
+        static long current() {
+            if (CURRENT == null) {
+                return 0;
+            }
+            try {
+                return (long) CURRENT.invokeExact();
+            } catch (Throwable e) {
+                return 0;
+            }
+        }
+
+        // getCurrentThreadAllocatedBytes() where available (Java 14+), else the per-thread-id lookup
+        private static MethodHandle currentThreadAllocatedBytes() {
+            if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                return lookup.findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+                        MethodType.methodType(long.class)).bindTo(threads);
+            } catch (ReflectiveOperationException e) {
+                try {
+                    MethodHandle byId = lookup.findVirtual(com.sun.management.ThreadMXBean.class, "getThreadAllocatedBytes",
+                            MethodType.methodType(long.class, long.class)).bindTo(threads);
+                    MethodHandle threadId = MethodHandles.lookup().findStatic(Allocation.class, "threadId",
+                            MethodType.methodType(long.class));
+                    return MethodHandles.foldArguments(byId, threadId);
+                } catch (ReflectiveOperationException e2) {
+                    return null;
+                }
+            }
+        }
+
+        private static long threadId() {
+            return Thread.currentThread().getId();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Streams newline-delimited JSON: records are read one at a time with a
+// JsonReader and each one is rendered straight into a buffered Writer, so
+// memory use depends on the largest record rather than on the input size.
+public class NdjsonTransformer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Builds the data model for one NDJSON record
+    public interface RecordModelFactory {
+        Object create(JsonElement record) throws IOException, TemplateException;
+    }
+
+    private final Template template;
+    private final RecordModelFactory modelFactory;
+
+    public NdjsonTransformer(Template template, RecordModelFactory modelFactory) {
+        this.template = template;
+        this.modelFactory = modelFactory;
+    }
+
+    // Stream source to target as described by the command line options; "-" stands for stdin/stdout
+    public static long run(TransformOptions options, Template template, RecordModelFactory modelFactory) throws IOException, TemplateException {
+        String sourcePath = options.getSourcePath();
+        String targetPath = options.getTargetPath();
+        InputStream in = sourcePath.equals("-") ? System.in : Files.newInputStream(Paths.get(sourcePath));
+        OutputSink sink = targetPath.equals("-") ? OutputSink.toStream(System.out)
+                : OutputSink.toFile(Paths.get(targetPath), options.isAtomic());
+
+        try (Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+             OutputSink.Output output = sink.open()) {
+            long records = new NdjsonTransformer(template, modelFactory).transform(reader, output.writer());
+            output.commit();
+            return records;
+        }
+    }
+
+    // Render every record, terminated by a newline unless the template already
+    // ends with one; returns the number of records
+    public long transform(Reader in, Writer out) throws IOException, TemplateException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        LineTrackingWriter lineOut = new LineTrackingWriter(out);
+
+        long records = 0;
+        while (reader.peek() != JsonToken.END_DOCUMENT) {
+            Object dataModel;
+            try (Metrics.Span span = Metrics.start("parse")) {
+                dataModel = modelFactory.create(JsonParser.parseReader(reader));
+            } catch (JsonParseException e) {
+                throw new IOException("Invalid JSON in record " + (records + 1) + ": " + e.getMessage(), e);
+            }
+            lineOut.reset();
+            try (Metrics.Span span = Metrics.start("render")) {
+                template.process(dataModel, lineOut);
+            }
+            lineOut.endLine();
+            records++;
+        }
+        out.flush();
+        return records;
+    }
+}
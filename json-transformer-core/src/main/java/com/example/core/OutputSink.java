@@ -0,0 +1,66 @@
+package com.example.core;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+
+// Destination of rendered output. Templates render through a ChannelWriter
+// straight into the destination, UTF-8 encoded, without building a String.
+// An Output that is closed without commit() is discarded where the sink
+// supports it (a file target keeps its previous content).
+public interface OutputSink {
+    Output open() throws IOException;
+
+    // Render one document into this sink and commit it
+    default void render(Template template, Object dataModel) throws IOException, TemplateException {
+        try (Output output = open()) {
+            try (Metrics.Span span = Metrics.start("render")) {
+                template.process(dataModel, output.writer());
+            }
+            try (Metrics.Span span = Metrics.start("commit")) {
+                output.commit();
+            }
+        }
+    }
+
+    // Write to target, replacing an existing file only on commit; with atomic, always through
+    // a temporary file in the same directory that replaces target on commit
+    static OutputSink toFile(Path target, boolean atomic) {
+        return new FileOutputSink(target, atomic);
+    }
+
+    // Write to a stream that stays open, e.g. stdout or a socket; commit flushes
+    static OutputSink toStream(OutputStream out) {
+        return () -> new Output() {
+            private final ChannelWriter writer = new ChannelWriter(Channels.newChannel(out), false);
+
+            @Override
+            public ChannelWriter writer() {
+                return writer;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                writer.flush();
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+                out.flush();
+            }
+        };
+    }
+
+    interface Output extends Closeable {
+        ChannelWriter writer();
+
+        void commit() throws IOException;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.core;
+
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Renders many sources through one shared compiled Template on a worker pool.
+// Submission is bounded by a semaphore so at most threads + queueCapacity
+// documents are in flight (or waiting to be written) at any time.
+public class ParallelTransformer implements AutoCloseable {
+    private final Template template;
+    private final DataModelFactory modelFactory;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean atomic;
+
+    public ParallelTransformer(Template template, DataModelFactory modelFactory,
+                               int threads, int queueCapacity, boolean virtualThreads, boolean atomic) {
+        this.template = template;
+        this.modelFactory = modelFactory;
+        this.atomic = atomic;
+        this.executor = virtualThreads ? newVirtualThreadExecutor(threads) : newPlatformExecutor(threads);
+        this.permits = new Semaphore(threads + queueCapacity);
+    }
+
+    // Run a batch as described by the command line options; returns the number of failed sources
+    public static int runBatch(TransformOptions options, Template template, DataModelFactory modelFactory,
+                               String defaultGlob) throws IOException {
+        List<Path> sources = options.isCombined() ? SourceResolver.list(options.getSourcePath(), defaultGlob)
+                : SourceResolver.resolve(options.getSourcePath(), defaultGlob);
+        Path target = Paths.get(options.getTargetPath());
+
+        long start = System.nanoTime();
+        int failed;
+        try (ParallelTransformer transformer = new ParallelTransformer(template, modelFactory,
+                options.getThreads(), options.getQueueCapacity(), options.isVirtualThreads(), options.isAtomic())) {
+            if (options.isCombined()) {
+                try (OutputSink.Output output = OutputSink.toFile(target, options.isAtomic()).open()) {
+                    failed = transformer.transformCombined(sources, output.writer(), options.isOrdered());
+                    output.commit();
+                }
+            } else {
+                for (Path source : sources) {
+                    Path parent = source.toAbsolutePath().getParent();
+                    if (parent != null && Files.exists(target) && Files.isSameFile(parent, target)) {
+                        throw new IOException("Target directory must differ from source directory: " + target);
+                    }
+                }
+                Files.createDirectories(target);
+                failed = transformer.transformEach(sources, target);
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Transformed " + (sources.size() - failed) + " of " + sources.size()
+                + " sources to " + target + " in " + elapsedMs + " ms");
+        return failed;
+    }
+
+    // Render every source into its own file under targetDir
+    public int transformEach(List<Path> sources, Path targetDir) throws IOException {
+        return transformEach(sources, targetDir, source -> { });
+    }
+
+    // Same, calling rendered on the worker thread with each source whose output was written
+    public int transformEach(List<Path> sources, Path targetDir, Consumer<Path> rendered) throws IOException {
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(sources.size());
+
+        for (Path source : sources) {
+            acquire();
+            executor.execute(() -> {
+                try {
+                    OutputSink.toFile(SourceResolver.targetFor(source, targetDir), atomic)
+                            .render(template, modelFactory.create(source));
+                    rendered.accept(source);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("Error transforming " + source + ": " + e.getMessage());
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            });
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transforms");
+        }
+        return failed.get();
+    }
+
+    // Render every source into one writer, one document per line group.
+    // With ordered output results are written in input order; otherwise as they complete.
+    // Results wait in memory as encoded bytes, not Strings.
+    public int transformCombined(List<Path> sources, ChannelWriter out, boolean ordered) throws IOException {
+        if (!ordered) {
+            return transformCombinedUnordered(sources, out);
+        }
+
+        int failed = 0;
+        ArrayDeque<PendingResult> pending = new ArrayDeque<>();
+        for (Path source : sources) {
+            // The permit of an ordered result is held until it is written, so when the
+            // pool is saturated the oldest result has to be drained before submitting more
+            while (!permits.tryAcquire()) {
+                failed += writeHead(pending, out);
+            }
+            pending.add(new PendingResult(source, executor.submit(() -> render(source))));
+            while (!pending.isEmpty() && pending.peek().future.isDone()) {
+                failed += writeHead(pending, out);
+            }
+        }
+        while (!pending.isEmpty()) {
+            failed += writeHead(pending, out);
+        }
+        out.flush();
+        return failed;
+    }
+
+    private int transformCombinedUnordered(List<Path> sources, ChannelWriter out) throws IOException {
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(sources.size());
+
+        for (Path source : sources) {
+            acquire();
+            executor.execute(() -> {
+                try {
+                    BufferOutputSink output = render(source);
+                    synchronized (out) {
+                        output.writeTo(out);
+                        out.write('\n');
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("Error transforming " + source + ": " + e.getMessage());
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            });
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transforms");
+        }
+        out.flush();
+        return failed.get();
+    }
+
+    private int writeHead(ArrayDeque<PendingResult> pending, ChannelWriter out) throws IOException {
+        PendingResult head = pending.poll();
+        try {
+            BufferOutputSink output = head.future.get();
+            output.writeTo(out);
+            out.write('\n');
+            return 0;
+        } catch (ExecutionException e) {
+            System.err.println("Error transforming " + head.source + ": " + e.getCause().getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + head.source);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private BufferOutputSink render(Path source) throws Exception {
+        Object dataModel = modelFactory.create(source);
+        BufferOutputSink output = new BufferOutputSink();
+        output.render(template, dataModel);
+        return output;
+    }
+
+    private void acquire() throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing transforms");
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "transform-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+    // Virtual threads exist from JDK 21 on; the project targets Java 11, so look them up reflectively
+    private static ExecutorService newVirtualThreadExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available on this JVM, using " + threads + " platform threads");
+            return newPlatformExecutor(threads);
+        }
+    }
+
+    private static class PendingResult {
+        final Path source;
+        final Future<BufferOutputSink> future;
+
+        PendingResult(Path source, Future<BufferOutputSink> future) {
+            this.source = source;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.core;
+
+import com.example.core.NdjsonTransformer.RecordModelFactory;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.TreeMap;
+
+// One kind of source document as a plugin of the TransformEngine: the app
+// options it declares, how its Configuration is set up and how a source
+// becomes a data model. Adapters are found with ServiceLoader
+// (META-INF/services/com.example.core.SourceAdapter) or passed to the engine
+// directly. One adapter instance serves every transform of a process, so the
+// factories it returns must be thread-safe.
+public interface SourceAdapter {
+    // Short name, used by --source-type and the server's source parameter
+    String name();
+
+    // Source file name for the usage message, e.g. "source.json"
+    String sourceName();
+
+    // Sources taken from a directory in batch mode, e.g. "*.json"
+    String defaultGlob();
+
+    // App options, in the TransformOptions.parse format
+    default String[] optionSpecs() {
+        return new String[0];
+    }
+
+    // Check the app options and set up shared state such as caches;
+    // an IllegalArgumentException is reported with the usage message
+    default void init(TransformOptions options) throws IOException {
+    }
+
+    // Adjust a new Configuration; the engine has set the template directory and UTF-8
+    default void configure(Configuration cfg) {
+    }
+
+    // Data models for sources rendered through template, or through
+    // templates named per request when template is null (server mode)
+    DataModelFactory modelFactory(Template template) throws IOException;
+
+    // Data models for NDJSON records, or null if this kind of source has no NDJSON form
+    default RecordModelFactory recordFactory() {
+        return null;
+    }
+
+    // Everything besides the template and the source that decides the output, such as
+    // app options and the files they name; an --incremental batch re-renders every
+    // source when it changes
+    default String fingerprint(TransformOptions options) throws IOException {
+        return name() + ' ' + new TreeMap<>(options.getAppOptions());
+    }
+
+    // Called once before a batch is rendered through template
+    default void beforeBatch(Template template) throws IOException {
+    }
+
+    // Transform one source into sink; returns the message printed on success
+    default String transform(Template template, DataModelFactory modelFactory, Path source, Path target,
+                             OutputSink sink) throws IOException, TemplateException {
+        sink.render(template, modelFactory.create(source));
+        return "Successfully transformed " + source + " to " + target;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SourceResolver {
+    private SourceResolver() {
+    }
+
+    // Resolve a directory, a glob pattern or an @list-file into sources that are each
+    // written to their own target; fails if two of them would be written to the same
+    // target (same base name in different directories), which only the last would keep
+    public static List<Path> resolve(String sourceSpec, String defaultGlob) throws IOException {
+        List<Path> sources = list(sourceSpec, defaultGlob);
+        Map<Path, Path> byTarget = new HashMap<>();
+        for (Path source : sources) {
+            Path previous = byTarget.putIfAbsent(targetFor(source, Paths.get("")), source);
+            if (previous != null) {
+                throw new IOException("Sources " + previous + " and " + source + " would both be written to "
+                        + targetFor(source, Paths.get("")));
+            }
+        }
+        return sources;
+    }
+
+    // The sources of a directory, a glob pattern or an @list-file, for uses without a
+    // target per source (a combined output, a pre-pass)
+    public static List<Path> list(String sourceSpec, String defaultGlob) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        if (sourceSpec.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(sourceSpec.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    sources.add(Paths.get(line));
+                }
+            }
+            return sources;
+        }
+
+        Path dir;
+        String glob;
+        if (sourceSpec.contains("*") || sourceSpec.contains("?") || sourceSpec.contains("{")) {
+            int slash = sourceSpec.lastIndexOf('/');
+            dir = slash >= 0 ? Paths.get(sourceSpec.substring(0, slash + 1)) : Paths.get(".");
+            glob = sourceSpec.substring(slash + 1);
+        } else {
+            dir = Paths.get(sourceSpec);
+            glob = defaultGlob;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    sources.add(path);
+                }
+            }
+        }
+        Collections.sort(sources);
+        return sources;
+    }
+
+    // Target file for a source in batch mode: same base name with a .json extension
+    public static Path targetFor(Path source, Path targetDir) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return targetDir.resolve(name + ".json");
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Builds a sparse data model in one streaming pass: values on the paths of a
+// FieldTree are read into the same Maps, Lists and Doubles that
+// gson.fromJson(json, Map.class) produces, every other subtree is skipped
+// without being materialized. Array elements that are not needed are kept as
+// null, so sizes and indexes are the same as in the full document.
+public final class SparseJsonReader {
+    private static final TypeAdapter<Object> VALUES = new Gson().getAdapter(Object.class);
+
+    private SparseJsonReader() {
+    }
+
+    public static Map<String, Object> read(Reader in, FieldTree fields) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IOException("The JSON document must be an object to be used as the data model");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> model = (Map<String, Object>) read(reader, fields);
+            return model;
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Invalid JSON: " + e.getMessage(), e);
+        }
+    }
+
+    private static Object read(JsonReader reader, FieldTree node) throws IOException {
+        if (node.isFull()) {
+            return VALUES.read(reader);
+        }
+        switch (reader.peek()) {
+            case BEGIN_OBJECT: {
+                if (node.isShape()) {
+                    // ?size and ?has_content of a hash need its keys
+                    return VALUES.read(reader);
+                }
+                Map<String, Object> object = new LinkedHashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    FieldTree child = node.key(name);
+                    if (child == null) {
+                        reader.skipValue();
+                    } else {
+                        object.put(name, read(reader, child));
+                    }
+                }
+                reader.endObject();
+                return object;
+            }
+            case BEGIN_ARRAY: {
+                List<Object> array = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    FieldTree child = node.index(array.size());
+                    if (child == null) {
+                        reader.skipValue();
+                        array.add(null);
+                    } else {
+                        array.add(read(reader, child));
+                    }
+                }
+                reader.endArray();
+                return array;
+            }
+            default:
+                // A scalar where the template expected a container, or a shape-only scalar
+                return VALUES.read(reader);
+        }
+    }
+}
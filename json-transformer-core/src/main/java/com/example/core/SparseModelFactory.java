@@ -0,0 +1,44 @@
+package com.example.core;
+
+import freemarker.template.Template;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Data models holding only the fields one template can read. The template is
+// scanned once; every source is then streamed through a SparseJsonReader, so
+// memory depends on the fields used rather than on the document size.
+public class SparseModelFactory implements DataModelFactory {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FieldTree fields;
+
+    // Throws IllegalArgumentException if the template can reach data the scanner cannot follow
+    public SparseModelFactory(Template template) {
+        this.fields = TemplateFieldScanner.scan(template);
+    }
+
+    public FieldTree getFields() {
+        return fields;
+    }
+
+    @Override
+    public Object create(byte[] content) throws IOException {
+        return SparseJsonReader.read(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8), fields);
+    }
+
+    // Streams the file instead of reading it into memory first, so reading is timed as parse
+    @Override
+    public Object create(Path source) throws IOException {
+        try (Metrics.Span span = Metrics.start("parse");
+             Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(source), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return SparseJsonReader.read(reader, fields);
+        }
+    }
+}
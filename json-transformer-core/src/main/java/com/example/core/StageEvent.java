@@ -0,0 +1,25 @@
+package com.example.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR event for one timed stage or template function call, recorded while a
+// flight recording with com.example.TransformStage enabled is running:
+//   java -XX:StartFlightRecording=filename=transform.jfr ... --metrics metrics.json
+@Name("com.example.TransformStage")
+@Label("Transform Stage")
+@Category("JSON Transformer")
+@Description("One stage of a transform or one template function call")
+@StackTrace(false)
+class StageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
@@ -0,0 +1,442 @@
+package com.example.core;
+
+import freemarker.template.Template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Collects the data-model paths a compiled template can read, by scanning the
+// expressions in its canonical form. Anything the scanner does not understand
+// is resolved towards reading more: a variable followed by a dynamic index, a
+// method call or an unknown built-in is needed whole. Only plain variable
+// chains are narrowed:
+//   company.name                          -> company.name
+//   <#list company.departments as d>      -> d.name becomes company.departments[*].name
+//   company.departments?size              -> only the length of the array
+// A loop variable is in scope until the closing </#list> or </#items>, where
+// the binding it shadowed (an outer loop variable of the same name) is back.
+// Templates that can reach data by other means (<#include>, <#import>,
+// <#visit>, <#recurse>, ?eval, ?eval_json, ?interpret, .vars, .data_model,
+// .globals, .main, .namespace, .get_optional_template) are rejected with an
+// IllegalArgumentException.
+// scanCalls collects the first-argument paths of calls to one function
+// instead, e.g. lookup(d.deviceId) -> company.departments[*].deviceId.
+// references tells whether a template can use a top-level variable at all,
+// so apps put functions into the data model only when they are needed.
+public final class TemplateFieldScanner {
+    private static final Pattern COMMENT = Pattern.compile("<#--.*?-->", Pattern.DOTALL);
+    private static final Pattern UNSUPPORTED = Pattern.compile(
+            "<#(include|import|visit|recurse)\\b|\\?(eval|eval_json|interpret)\\b"
+                    + "|\\.(vars|data_model|dataModel|globals|main|namespace|get_optional_template|getOptionalTemplate)\\b");
+    private static final Pattern LIST = Pattern.compile("(?s)\\s*(.*?)\\s+as\\s+([A-Za-z_]\\w*)\\s*(,\\s*[A-Za-z_]\\w*\\s*)?");
+    private static final Pattern ITEMS = Pattern.compile("(?s)\\s*as\\s+([A-Za-z_]\\w*)\\s*(,\\s*[A-Za-z_]\\w*\\s*)?");
+    private static final Pattern ASSIGN = Pattern.compile("(?s)\\s*([A-Za-z_]\\w*)\\s*=\\s*(.*?)\\s*");
+    // A name that is not a hash key (a.name) or a built-in (x?name)
+    private static final Pattern NAME = Pattern.compile("(?<![\\w.?$])[A-Za-z_$][\\w$]*");
+    private static final String NAMES_ATTRIBUTE = TemplateFieldScanner.class.getName() + ".names";
+    private static final Set<String> ALL_NAMES = Collections.emptySet();
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "as", "in", "using", "gt", "gte", "lt", "lte", "true", "false"));
+    private static final Set<String> SHAPE_BUILTINS = new HashSet<>(Arrays.asList("size", "has_content"));
+    private static final Set<String> LOOP_BUILTINS = new HashSet<>(Arrays.asList(
+            "index", "counter", "has_next", "is_first", "is_last", "item_parity", "item_parity_cap",
+            "item_cycle", "is_even_item", "is_odd_item"));
+
+    private final FieldTree fields = new FieldTree();
+    private final String function;
+    private final FieldTree calls = new FieldTree();
+    private final Map<String, List<Object>> aliases = new HashMap<>();
+    private final Deque<String> pendingLists = new ArrayDeque<>();
+    // One entry per open <#list> and <#items>, popped at its closing tag
+    private final Deque<LoopScope> loopScopes = new ArrayDeque<>();
+
+    private TemplateFieldScanner(String function) {
+        this.function = function;
+    }
+
+    public static FieldTree scan(Template template) {
+        return run(template, null).fields;
+    }
+
+    // Paths passed as the first argument of function(...); arguments that are not plain chains are left out
+    public static FieldTree scanCalls(Template template, String function) {
+        return run(template, function).calls;
+    }
+
+    // Whether template may read the top-level variable name: it appears as a name in the
+    // template, or the template can reach variables by means the scan cannot follow
+    // (any UNSUPPORTED construct). Always true for a null template, as in server mode.
+    public static boolean references(Template template, String name) {
+        if (template == null) {
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> names = (Set<String>) template.getCustomAttribute(NAMES_ATTRIBUTE);
+        if (names == null) {
+            String source = template.getRootTreeNode() == null ? ""
+                    : COMMENT.matcher(template.getRootTreeNode().getCanonicalForm()).replaceAll("");
+            if (UNSUPPORTED.matcher(source).find()) {
+                names = ALL_NAMES;
+            } else {
+                names = new HashSet<>();
+                Matcher matcher = NAME.matcher(source);
+                while (matcher.find()) {
+                    names.add(matcher.group());
+                }
+            }
+            template.setCustomAttribute(NAMES_ATTRIBUTE, names);
+        }
+        return names == ALL_NAMES || names.contains(name);
+    }
+
+    private static TemplateFieldScanner run(Template template, String function) {
+        String source = COMMENT.matcher(template.toString()).replaceAll("");
+        Matcher unsupported = UNSUPPORTED.matcher(source);
+        if (unsupported.find()) {
+            throw new IllegalArgumentException("template " + template.getName() + " uses " + unsupported.group());
+        }
+        TemplateFieldScanner scanner = new TemplateFieldScanner(function);
+        scanner.scanText(source);
+        return scanner;
+    }
+
+    // Template text: only ${...} interpolations and <#...>/<@...> tags hold expressions
+    private void scanText(String text) {
+        int i = 0;
+        while (i < text.length()) {
+            if (text.startsWith("${", i) || text.startsWith("#{", i)) {
+                int end = findEnd(text, i + 2, '}');
+                scanExpression(text.substring(i + 2, end));
+                i = end + 1;
+            } else if (text.startsWith("</#", i)) {
+                int end = findEnd(text, i + 3, '>');
+                String name = text.substring(i + 3, end).trim();
+                if ((name.equals("list") || name.equals("items")) && !loopScopes.isEmpty()) {
+                    loopScopes.pop().restore(aliases);
+                }
+                i = end + 1;
+            } else if (text.startsWith("<#", i) || text.startsWith("<@", i)) {
+                int end = findEnd(text, i + 2, '>');
+                String tag = text.substring(i + 2, end);
+                if (tag.endsWith("/")) {
+                    tag = tag.substring(0, tag.length() - 1);
+                }
+                if (text.charAt(i + 1) == '#') {
+                    scanDirective(tag);
+                } else {
+                    scanExpression(tag);
+                }
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void scanDirective(String tag) {
+        int nameEnd = 0;
+        while (nameEnd < tag.length() && Character.isLetter(tag.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = tag.substring(0, nameEnd);
+        String body = tag.substring(nameEnd);
+        Matcher m;
+        switch (name) {
+            case "list":
+                m = LIST.matcher(body);
+                if (!m.matches()) {
+                    // <#list x>...<#items as e>: the loop variable is declared by the items tag
+                    pendingLists.push(body.trim());
+                    loopScopes.push(new LoopScope(null, null));
+                    return;
+                }
+                bindLoop(m.group(1), m.group(2), m.group(3) != null);
+                return;
+            case "items":
+                m = ITEMS.matcher(body);
+                if (m.matches() && !pendingLists.isEmpty()) {
+                    bindLoop(pendingLists.pop(), m.group(1), m.group(2) != null);
+                    return;
+                }
+                loopScopes.push(new LoopScope(null, null));
+                break;
+            case "assign":
+            case "local":
+            case "global":
+                m = ASSIGN.matcher(body);
+                if (m.matches() && isChain(m.group(2))) {
+                    List<Object> path = resolve(m.group(2));
+                    if (path != null) {
+                        aliases.put(m.group(1), path);
+                        return;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        scanExpression(body);
+    }
+
+    // A loop over a plain chain narrows to the fields used through the loop variable;
+    // a hash listing (as k, v) or a computed sequence needs the whole value, and its
+    // loop variable hides any outer alias of the same name
+    private void bindLoop(String expression, String alias, boolean keyValue) {
+        List<Object> path = !keyValue && isChain(expression) ? resolve(expression) : null;
+        if (path == null) {
+            scanExpression(expression);
+            loopScopes.push(new LoopScope(alias, aliases.remove(alias)));
+            return;
+        }
+        path.add(FieldTree.ANY_INDEX);
+        loopScopes.push(new LoopScope(alias, aliases.put(alias, path)));
+    }
+
+    private void scanExpression(String expression) {
+        int i = 0;
+        int n = expression.length();
+        char previous = ' ';
+        while (i < n) {
+            char c = expression.charAt(i);
+            if (c == '"' || c == '\'') {
+                boolean raw = i > 0 && expression.charAt(i - 1) == 'r';
+                int end = skipString(expression, i);
+                if (!raw) {
+                    // String literals can hold interpolations of their own
+                    scanText(expression.substring(i + 1, Math.max(i + 1, end - 1)));
+                }
+                i = end;
+                previous = c;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                i = skipIdentifier(expression, i);
+                if (previous == '.' || previous == '?' || KEYWORDS.contains(expression.substring(start, i))) {
+                    // Built-in name, special variable, member of a computed value, or keyword
+                    previous = 'a';
+                    continue;
+                }
+                if (followedBy(expression, i, "->")) {
+                    previous = 'a';
+                    continue;
+                }
+                if (function != null && followedBy(expression, i, "(") && expression.substring(start, i).equals(function)) {
+                    scanCall(expression, expression.indexOf('(', i) + 1);
+                }
+                i = scanChain(expression, start);
+                previous = 'a';
+            } else if (expression.startsWith("..", i)) {
+                // Range operator, not a member access
+                i += 2;
+                previous = ' ';
+            } else {
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                i++;
+            }
+        }
+    }
+
+    // Record one variable chain starting at start; returns the index after it
+    private int scanChain(String expression, int start) {
+        List<Object> segments = new ArrayList<>();
+        int i = parseChain(expression, start, segments);
+        String root = (String) segments.get(0);
+        List<Object> tail = segments.subList(1, segments.size());
+
+        boolean shapeOnly = false;
+        boolean noData = false;
+        int after = skipWhitespace(expression, i);
+        if (after < expression.length() && expression.charAt(after) == '?'
+                && after + 1 < expression.length() && expression.charAt(after + 1) != '?') {
+            String builtin = expression.substring(after + 1, skipIdentifier(expression, after + 1));
+            shapeOnly = SHAPE_BUILTINS.contains(builtin);
+            noData = tail.isEmpty() && aliases.containsKey(root) && LOOP_BUILTINS.contains(builtin);
+        }
+        if (noData) {
+            return i;
+        }
+
+        List<Object> aliased = aliases.get(root);
+        if (aliased != null) {
+            List<Object> path = new ArrayList<>(aliased);
+            path.addAll(tail);
+            fields.add(path, shapeOnly);
+        }
+        // Also as a top-level variable, in case the alias is out of scope here
+        fields.add(segments, shapeOnly);
+        return i;
+    }
+
+    private void scanCall(String expression, int argumentStart) {
+        int depth = 0;
+        int i = argumentStart;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipString(expression, i);
+                continue;
+            }
+            if (depth == 0 && (c == ',' || c == ')')) {
+                break;
+            }
+            if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                depth--;
+            }
+            i++;
+        }
+        String argument = expression.substring(argumentStart, i);
+        if (isChain(argument)) {
+            calls.add(resolve(argument), false);
+            List<Object> segments = new ArrayList<>();
+            parseChain(argument.trim(), 0, segments);
+            // Also as a top-level variable, in case the alias is out of scope here
+            calls.add(segments, false);
+        }
+    }
+
+    // Parse name(.name|[0]|["key"])*; stops before anything dynamic
+    private static int parseChain(String expression, int start, List<Object> segments) {
+        int i = skipIdentifier(expression, start);
+        segments.add(expression.substring(start, i));
+        int n = expression.length();
+        while (i < n) {
+            char c = expression.charAt(i);
+            if (c == '.' && i + 1 < n && (Character.isLetter(expression.charAt(i + 1)) || expression.charAt(i + 1) == '_')) {
+                int end = skipIdentifier(expression, i + 1);
+                segments.add(expression.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                int close = expression.indexOf(']', i);
+                String inner = close < 0 ? "" : expression.substring(i + 1, close).trim();
+                if (inner.matches("\\d+")) {
+                    segments.add(Integer.valueOf(inner));
+                } else if (inner.length() >= 2 && (inner.charAt(0) == '"' || inner.charAt(0) == '\'')
+                        && inner.charAt(inner.length() - 1) == inner.charAt(0)
+                        && inner.indexOf(inner.charAt(0), 1) == inner.length() - 1) {
+                    segments.add(inner.substring(1, inner.length() - 1));
+                } else {
+                    // Dynamic index or range: the chain so far is needed whole, the index is scanned separately
+                    return i;
+                }
+                i = close + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private boolean isChain(String expression) {
+        String trimmed = expression.trim();
+        if (trimmed.isEmpty() || !(Character.isLetter(trimmed.charAt(0)) || trimmed.charAt(0) == '_')) {
+            return false;
+        }
+        List<Object> segments = new ArrayList<>();
+        return parseChain(trimmed, 0, segments) == trimmed.length() && !KEYWORDS.contains((String) segments.get(0));
+    }
+
+    // Path of a plain chain, through an alias if its root is one
+    private List<Object> resolve(String chain) {
+        List<Object> segments = new ArrayList<>();
+        parseChain(chain.trim(), 0, segments);
+        List<Object> aliased = aliases.get((String) segments.get(0));
+        if (aliased == null) {
+            return segments;
+        }
+        List<Object> path = new ArrayList<>(aliased);
+        path.addAll(segments.subList(1, segments.size()));
+        return path;
+    }
+
+    private static int findEnd(String text, int from, char terminator) {
+        int depth = 0;
+        int i = from;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipString(text, i);
+                continue;
+            }
+            if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || (c == '}' && depth > 0)) {
+                depth--;
+            } else if (c == terminator && depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return text.length();
+    }
+
+    private static int skipString(String text, int start) {
+        char quote = text.charAt(start);
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    private static int skipIdentifier(String text, int start) {
+        int i = start;
+        while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String text, int start) {
+        int i = start;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean followedBy(String text, int start, String token) {
+        return text.startsWith(token, skipWhitespace(text, start));
+    }
+
+    // A loop variable and the alias it shadowed, or null
+    private static final class LoopScope {
+        final String alias;
+        final List<Object> shadowed;
+
+        LoopScope(String alias, List<Object> shadowed) {
+            this.alias = alias;
+            this.shadowed = shadowed;
+        }
+
+        void restore(Map<String, List<Object>> aliases) {
+            if (alias == null) {
+                return;
+            }
+            if (shadowed == null) {
+                aliases.remove(alias);
+            } else {
+                aliases.put(alias, shadowed);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.core;
+
+import freemarker.template.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Parses every template under a directory into the Configuration's template
+// cache on a thread pool, so the first request for a template does not pay
+// for parsing it. Template names are relative to the directory, as the
+// Configuration's directory template loader expects them.
+public final class TemplateWarmUp {
+    private TemplateWarmUp() {
+    }
+
+    // Returns the number of templates that failed to parse; each failure is reported on stderr
+    public static int precompile(Configuration cfg, Path templateDir, int threads) throws IOException {
+        List<String> names = templateNames(templateDir);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, names.size())));
+        int failed = 0;
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (String name : names) {
+                results.add(executor.submit(() -> cfg.getTemplate(name)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("Error precompiling " + names.get(i) + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while precompiling templates", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.err.println("Precompiled " + (names.size() - failed) + " templates in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms" + (failed > 0 ? " (" + failed + " failed)" : ""));
+        return failed;
+    }
+
+    static List<String> templateNames(Path templateDir) throws IOException {
+        try (Stream<Path> files = Files.walk(templateDir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().matches(".*\\.ftl[hx]?"))
+                    .map(file -> templateDir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.core;
+
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModelException;
+
+import java.util.List;
+
+// Template function wrapper recording every call under "function:<name>"
+public final class TimedMethod implements TemplateMethodModelEx {
+    private final Metrics.Timer timer;
+    private final TemplateMethodModelEx function;
+
+    private TimedMethod(Metrics.Timer timer, TemplateMethodModelEx function) {
+        this.timer = timer;
+        this.function = function;
+    }
+
+    // The function itself while metrics are off
+    public static TemplateMethodModelEx wrap(String name, TemplateMethodModelEx function) {
+        return Metrics.isEnabled() ? new TimedMethod(Metrics.timer("function:" + name), function) : function;
+    }
+
+    @Override
+    public Object exec(List arguments) throws TemplateModelException {
+        try (Metrics.Span span = timer.start()) {
+            return function.exec(arguments);
+        }
+    }
+}
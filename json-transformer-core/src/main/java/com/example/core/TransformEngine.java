@@ -0,0 +1,336 @@
+package com.example.core;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// The transform pipeline shared by every app: source adapter -> data model ->
+// compiled template -> output sink. Each kind of source is a SourceAdapter
+// plugin; the engine owns the command line, the Configuration, and the single,
+// batch, NDJSON, fan-out and server modes around them.
+//
+//   TransformEngine engine = TransformEngine.load();
+//   engine.transform("json", templateDir, "report.ftl", source, OutputSink.toFile(target, true));
+public class TransformEngine {
+    private final Map<String, SourceAdapter> adapters = new LinkedHashMap<>();
+    // Configurations and server-mode model factories, per adapter and template directory
+    private final Map<String, Configuration> configurations = new ConcurrentHashMap<>();
+    private final Map<String, DataModelFactory> modelFactories = new ConcurrentHashMap<>();
+
+    public TransformEngine(Collection<? extends SourceAdapter> adapters) {
+        for (SourceAdapter adapter : adapters) {
+            if (this.adapters.putIfAbsent(adapter.name(), adapter) != null) {
+                throw new IllegalArgumentException("Duplicate source adapter: " + adapter.name());
+            }
+        }
+        if (this.adapters.isEmpty()) {
+            throw new IllegalArgumentException("No source adapters");
+        }
+    }
+
+    // Every adapter registered in META-INF/services/com.example.core.SourceAdapter on the class path
+    public static TransformEngine load() {
+        List<SourceAdapter> found = new ArrayList<>();
+        ServiceLoader.load(SourceAdapter.class).forEach(found::add);
+        return new TransformEngine(found);
+    }
+
+    public Collection<SourceAdapter> adapters() {
+        return adapters.values();
+    }
+
+    public SourceAdapter adapter(String name) {
+        SourceAdapter adapter = adapters.get(name);
+        if (adapter == null) {
+            throw new IllegalArgumentException("Unknown source type: " + name + ", expected one of " + adapters.keySet());
+        }
+        return adapter;
+    }
+
+    // App options of every adapter, each once
+    public String[] optionSpecs() {
+        Set<String> specs = new LinkedHashSet<>();
+        for (SourceAdapter adapter : adapters.values()) {
+            specs.addAll(List.of(adapter.optionSpecs()));
+        }
+        return specs.toArray(new String[0]);
+    }
+
+    // The adapter's Configuration for templates under templateDir, created on first use
+    public Configuration configuration(SourceAdapter adapter, File templateDir) throws IOException {
+        String key = adapter.name() + '\0' + templateDir.getAbsolutePath();
+        Configuration cfg = configurations.get(key);
+        if (cfg == null) {
+            cfg = new Configuration(Configuration.VERSION_2_3_32);
+            cfg.setDirectoryForTemplateLoading(templateDir);
+            cfg.setDefaultEncoding("UTF-8");
+            adapter.configure(cfg);
+            Configuration existing = configurations.putIfAbsent(key, cfg);
+            if (existing != null) {
+                cfg = existing;
+            }
+        }
+        return cfg;
+    }
+
+    // Render one source through a template under templateDir; the adapter must have been initialized
+    public void transform(String sourceType, File templateDir, String templateName, Path source, OutputSink sink)
+            throws IOException, TemplateException {
+        SourceAdapter adapter = adapter(sourceType);
+        Template template;
+        try (Metrics.Span span = Metrics.start("template")) {
+            template = configuration(adapter, templateDir).getTemplate(templateName);
+        }
+        DataModelFactory modelFactory = modelFactories.get(adapter.name());
+        if (modelFactory == null) {
+            modelFactory = adapter.modelFactory(null);
+            modelFactories.putIfAbsent(adapter.name(), modelFactory);
+        }
+        sink.render(template, modelFactory.create(source));
+    }
+
+    // Serve every adapter from one template directory; requests pick a source type, the first adapter by default
+    public void serve(TransformOptions options) throws IOException {
+        File templateDir = new File(options.getTemplatePath()).getAbsoluteFile();
+        Map<String, TransformServer.Pipeline> pipelines = new LinkedHashMap<>();
+        for (SourceAdapter adapter : adapters.values()) {
+            pipelines.put(adapter.name(), new TransformServer.Pipeline(configuration(adapter, templateDir),
+                    adapter.modelFactory(null)));
+        }
+        TransformServer.run(options, pipelines, adapters.keySet().iterator().next());
+    }
+
+    // Single, batch or NDJSON transform of the command line's sources with one adapter;
+    // returns the number of failed sources. A --watch batch returns only when interrupted.
+    public int run(TransformOptions options, SourceAdapter adapter) throws IOException, TemplateException {
+        File templateFile = new File(options.getTemplatePath()).getAbsoluteFile();
+        File templateDir = templateFile.getParentFile();
+        if (templateDir == null) {
+            templateDir = new File(".").getAbsoluteFile();
+        }
+        if (options.isIncremental()) {
+            IncrementalTransformer transformer = new IncrementalTransformer(options, adapter,
+                    configuration(adapter, templateDir), templateDir.toPath(), templateFile.getName());
+            int failed = transformer.run();
+            if (options.isWatch()) {
+                transformer.watch();
+            }
+            return failed;
+        }
+        Template template;
+        try (Metrics.Span span = Metrics.start("template")) {
+            template = configuration(adapter, templateDir).getTemplate(templateFile.getName());
+        }
+        DataModelFactory modelFactory = adapter.modelFactory(template);
+        if (options.isBatch()) {
+            adapter.beforeBatch(template);
+        }
+        // Adapters see the parsed template; only rendering goes through the compiled one
+        if (options.isCompiled()) {
+            template = CompiledTemplate.compile(template);
+        }
+
+        if (options.isBatch()) {
+            return ParallelTransformer.runBatch(options, template, modelFactory, adapter.defaultGlob());
+        }
+        if (options.isNdjson()) {
+            long records = NdjsonTransformer.run(options, template, adapter.recordFactory());
+            System.err.println("Transformed " + records + " records from " + options.getSourcePath()
+                    + " to " + options.getTargetPath());
+            return 0;
+        }
+
+        // Process template straight into the output file
+        Path target = Paths.get(options.getTargetPath());
+        System.out.println(adapter.transform(template, modelFactory, Paths.get(options.getSourcePath()), target,
+                OutputSink.toFile(target, options.isAtomic())));
+        return 0;
+    }
+
+    // One source through every template=target pair of --fan-out. A pair may name
+    // its source type, function:report.ftl=report.json; the others use adapter.
+    // Each source type used parses the source into a data model once, and all
+    // templates render those models concurrently on --threads threads. Returns the number of
+    // failed targets.
+    public int fanOut(TransformOptions options, SourceAdapter adapter) throws IOException, TemplateException {
+        long start = System.nanoTime();
+        Path source = Paths.get(options.getSourcePath());
+        List<FanOutTarget> targets = new ArrayList<>();
+        Map<SourceAdapter, Object> models = new LinkedHashMap<>();
+        for (String pair : options.getFanOutTargets()) {
+            FanOutTarget target = fanOutTarget(pair, adapter);
+            targets.add(target);
+            if (!models.containsKey(target.adapter)) {
+                models.put(target.adapter, target.adapter.modelFactory(null).create(source));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.getThreads(), targets.size()));
+        List<Future<?>> renders = new ArrayList<>();
+        for (FanOutTarget target : targets) {
+            Object model = models.get(target.adapter);
+            renders.add(executor.submit(() -> {
+                File templateFile = target.template.getAbsoluteFile();
+                Template template;
+                try (Metrics.Span span = Metrics.start("template")) {
+                    template = configuration(target.adapter, templateFile.getParentFile())
+                            .getTemplate(templateFile.getName());
+                }
+                if (options.isCompiled()) {
+                    template = CompiledTemplate.compile(template);
+                }
+                OutputSink.toFile(target.target, options.isAtomic()).render(template, model);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                renders.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Error transforming " + source + " with " + targets.get(i).template + ": "
+                        + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new InterruptedIOException("Interrupted while waiting for transforms");
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Transformed " + source + " through " + (targets.size() - failed) + " of "
+                + targets.size() + " templates in " + elapsedMs + " ms");
+        return failed;
+    }
+
+    // Adapters named by --fan-out pairs, besides the default one
+    public Set<SourceAdapter> fanOutAdapters(TransformOptions options, SourceAdapter adapter) {
+        Set<SourceAdapter> used = new LinkedHashSet<>();
+        for (String pair : options.getFanOutTargets()) {
+            used.add(fanOutTarget(pair, adapter).adapter);
+        }
+        return used;
+    }
+
+    // [type:]template=target; a prefix that is no source type is part of the template path
+    private FanOutTarget fanOutTarget(String pair, SourceAdapter adapter) {
+        int equals = pair.indexOf('=');
+        String template = pair.substring(0, equals);
+        int colon = template.indexOf(':');
+        if (colon > 0 && adapters.containsKey(template.substring(0, colon))) {
+            adapter = adapters.get(template.substring(0, colon));
+            template = template.substring(colon + 1);
+        }
+        return new FanOutTarget(adapter, new File(template), Paths.get(pair.substring(equals + 1)));
+    }
+
+    private static final class FanOutTarget {
+        final SourceAdapter adapter;
+        final File template;
+        final Path target;
+
+        FanOutTarget(SourceAdapter adapter, File template, Path target) {
+            this.adapter = adapter;
+            this.template = template;
+            this.target = target;
+        }
+    }
+
+    // Command line of a single-source app
+    public static void main(String[] args, SourceAdapter adapter) {
+        main(args, new TransformEngine(List.of(adapter)), adapter.sourceName(), new String[0], options -> adapter);
+    }
+
+    // Command line of an app over several adapters: select picks the adapter
+    // for a non-server run, and extraOptions are the app's own options
+    public static void main(String[] args, TransformEngine engine, String sourceName, String[] extraOptions,
+                            Function<TransformOptions, SourceAdapter> select) {
+        List<String> specs = new ArrayList<>(List.of(extraOptions));
+        specs.addAll(List.of(engine.optionSpecs()));
+        String[] appOptions = specs.toArray(new String[0]);
+
+        TransformOptions options;
+        Collection<SourceAdapter> active;
+        try {
+            options = TransformOptions.parse(args, appOptions);
+            if (options.isServer()) {
+                active = engine.adapters();
+            } else if (options.isFanOut()) {
+                active = engine.fanOutAdapters(options, select.apply(options));
+            } else {
+                active = List.of(select.apply(options));
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e, sourceName, appOptions);
+            return;
+        }
+
+        Metrics.configure(options);
+
+        try {
+            for (SourceAdapter adapter : active) {
+                adapter.init(options);
+                if (options.isNdjson() && adapter.recordFactory() == null) {
+                    throw new IllegalArgumentException("--ndjson is not supported for " + adapter.name() + " sources");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e, sourceName, appOptions);
+            return;
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        try {
+            if (options.isServer()) {
+                engine.serve(options);
+                return;
+            }
+            if (options.isFanOut()) {
+                int failed = engine.fanOut(options, select.apply(options));
+                System.exit(failed > 0 ? 1 : 0);
+            }
+            int failed = engine.run(options, active.iterator().next());
+            if (options.isBatch()) {
+                System.exit(failed > 0 ? 1 : 0);
+            }
+        } catch (IOException | TemplateException e) {
+            fail(e);
+        }
+    }
+
+    private static void usage(IllegalArgumentException e, String sourceName, String[] appOptions) {
+        System.err.println(e.getMessage());
+        System.err.println(TransformOptions.usage(sourceName, "target.json", appOptions));
+        System.exit(1);
+    }
+
+    private static void fail(Exception e) {
+        System.err.println("Error: " + e.getMessage());
+        e.printStackTrace();
+        System.exit(1);
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// What an --incremental batch rendered last time, kept as JSON next to the
+// outputs. Each source maps to the SHA-256 of its inputs (template with its
+// include/import dependencies, adapter configuration, source content) and of
+// the output it produced. A source is skipped while its input hash is
+// unchanged and its output file is as it was written. Size and modification
+// time of each file are kept too, so an unchanged source is not even re-read.
+public final class TransformManifest {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+
+    private TransformManifest(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    // The manifest in file, or an empty one if it does not exist or cannot be read
+    public static TransformManifest load(Path file) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Stored stored = GSON.fromJson(reader, Stored.class);
+            if (stored != null && stored.version == Stored.VERSION && stored.entries != null) {
+                entries.putAll(stored.entries);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (JsonParseException e) {
+            System.err.println("Ignoring unreadable manifest " + file + ": " + e.getMessage());
+        }
+        return new TransformManifest(file, entries);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public Entry get(Path source) {
+        return entries.get(key(source));
+    }
+
+    public void put(Path source, Entry entry) {
+        entries.put(key(source), entry);
+    }
+
+    public void remove(Path source) {
+        entries.remove(key(source));
+    }
+
+    // Forget sources that are no longer part of the batch; returns whether any were dropped
+    public boolean retain(Collection<Path> sources) {
+        Set<String> keys = new HashSet<>();
+        for (Path source : sources) {
+            keys.add(key(source));
+        }
+        return entries.keySet().retainAll(keys);
+    }
+
+    // Written to a temporary file that replaces the manifest, so an interrupted run leaves the old one
+    public void save() throws IOException {
+        Stored stored = new Stored();
+        stored.entries = new TreeMap<>(entries);
+        try (OutputSink.Output output = OutputSink.toFile(file, true).open()) {
+            GSON.toJson(stored, output.writer());
+            output.writer().write('\n');
+            output.commit();
+        }
+    }
+
+    private static String key(Path source) {
+        return source.toAbsolutePath().normalize().toString();
+    }
+
+    // Hex SHA-256 of a file's content
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    // Hex SHA-256 of several values, each terminated so that ("ab", "c") and ("a", "bc") differ
+    public static String hash(String... parts) {
+        MessageDigest digest = sha256();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    // Size and modification time of a file, to tell cheaply whether it changed since it was hashed
+    public static final class Stamp {
+        final long size;
+        final long modified;
+
+        private Stamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        // null if the file does not exist
+        public static Stamp of(Path file) throws IOException {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+    }
+
+    public static final class Entry {
+        final String source;
+        final long sourceSize;
+        final long sourceModified;
+        final String input;
+        final String target;
+        final String output;
+        final long outputSize;
+        final long outputModified;
+
+        public Entry(String source, Stamp sourceStamp, String input, Path target, String output, Stamp outputStamp) {
+            this.source = source;
+            this.sourceSize = sourceStamp.size;
+            this.sourceModified = sourceStamp.modified;
+            this.input = input;
+            this.target = target.toString();
+            this.output = output;
+            this.outputSize = outputStamp.size;
+            this.outputModified = outputStamp.modified;
+        }
+
+        // Source hash, if the source still has the size and modification time it had when hashed
+        public String sourceHash(Stamp stamp) {
+            return stamp.size == sourceSize && stamp.modified == sourceModified ? source : null;
+        }
+
+        // Whether the output for these inputs is still in place, unchanged since it was written
+        public boolean isCurrent(String input, Path target, Stamp outputStamp) {
+            return input.equals(this.input) && target.toString().equals(this.target) && outputStamp != null
+                    && outputStamp.size == outputSize && outputStamp.modified == outputModified;
+        }
+    }
+
+    private static final class Stored {
+        static final int VERSION = 1;
+
+        int version = VERSION;
+        Map<String, Entry> entries;
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Command line shared by the transformer apps:
+//   <template> <source> <target>
+//   --batch [--threads N] [--queue N] [--virtual-threads] [--combined [--ordered]] <template> <sources> <target>
+//   --batch --incremental|--watch [--manifest file] <template> <sources> <target-dir>
+//   --server http|stdin [--port N] [--threads N] [--template-update-ms N] [--warm-up] <template-dir>
+//   --ndjson <template> <source.ndjson|-> <target|->
+//   --fan-out [--threads N] <source> <template=target>...
+// --atomic writes each output file to a temporary file that replaces the target once complete;
+// without it a new target is written in place, and an existing one is still only replaced on success.
+// --metrics <file> records per-stage timings (see Metrics) and writes them to file on exit.
+// --compiled renders through CompiledTemplate, with the interpreter for what it does not cover.
+// Apps may declare their own options: "--flag" for a switch, "--name <value>" for one that takes a value.
+public class TransformOptions {
+    private boolean batch;
+    private boolean ndjson;
+    private boolean fanOut;
+    private final List<String> fanOutTargets = new ArrayList<>();
+    private String server;
+    private int port = 8080;
+    private long templateUpdateMillis = 2000;
+    private boolean warmUp;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = -1;
+    private boolean virtualThreads;
+    private boolean combined;
+    private boolean ordered;
+    private boolean incremental;
+    private boolean watch;
+    private String manifestPath;
+    private boolean atomic;
+    private String metricsPath;
+    private boolean compiled;
+    private String templatePath;
+    private String sourcePath;
+    private String targetPath;
+    private final Map<String, String> appOptions = new HashMap<>();
+
+    public static TransformOptions parse(String[] args, String... appOptionSpecs) {
+        TransformOptions options = new TransformOptions();
+        Map<String, Boolean> appOptionTakesValue = new HashMap<>();
+        for (String spec : appOptionSpecs) {
+            int space = spec.indexOf(' ');
+            appOptionTakesValue.put(space < 0 ? spec : spec.substring(0, space), space >= 0);
+        }
+        List<String> positional = new ArrayList<>();
+        boolean batchOnly = false;
+        boolean serverOnly = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--batch":
+                    options.batch = true;
+                    break;
+                case "--ndjson":
+                    options.ndjson = true;
+                    break;
+                case "--fan-out":
+                    options.fanOut = true;
+                    break;
+                case "--server":
+                    options.server = valueOf(args, ++i, arg);
+                    if (!options.server.equals("http") && !options.server.equals("stdin")) {
+                        throw new IllegalArgumentException("--server must be http or stdin: " + options.server);
+                    }
+                    break;
+                case "--port":
+                    options.port = parsePositive(arg, valueOf(args, ++i, arg));
+                    serverOnly = true;
+                    break;
+                case "--template-update-ms":
+                    options.templateUpdateMillis = parsePositive(arg, valueOf(args, ++i, arg));
+                    serverOnly = true;
+                    break;
+                case "--atomic":
+                    options.atomic = true;
+                    break;
+                case "--metrics":
+                    options.metricsPath = valueOf(args, ++i, arg);
+                    break;
+                case "--compiled":
+                    options.compiled = true;
+                    break;
+                case "--warm-up":
+                    options.warmUp = true;
+                    serverOnly = true;
+                    break;
+                case "--threads":
+                    options.threads = parsePositive(arg, valueOf(args, ++i, arg));
+                    break;
+                case "--queue":
+                    options.queueCapacity = parsePositive(arg, valueOf(args, ++i, arg));
+                    batchOnly = true;
+                    break;
+                case "--virtual-threads":
+                    options.virtualThreads = true;
+                    batchOnly = true;
+                    break;
+                case "--combined":
+                    options.combined = true;
+                    batchOnly = true;
+                    break;
+                case "--ordered":
+                    options.ordered = true;
+                    batchOnly = true;
+                    break;
+                case "--incremental":
+                    options.incremental = true;
+                    batchOnly = true;
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    options.incremental = true;
+                    batchOnly = true;
+                    break;
+                case "--manifest":
+                    options.manifestPath = valueOf(args, ++i, arg);
+                    batchOnly = true;
+                    break;
+                default:
+                    if (appOptionTakesValue.containsKey(arg)) {
+                        options.appOptions.put(arg, appOptionTakesValue.get(arg) ? valueOf(args, ++i, arg) : "true");
+                        break;
+                    }
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    positional.add(arg);
+            }
+        }
+
+        if ((options.batch ? 1 : 0) + (options.ndjson ? 1 : 0) + (options.fanOut ? 1 : 0)
+                + (options.server != null ? 1 : 0) > 1) {
+            throw new IllegalArgumentException("--batch, --ndjson, --fan-out and --server cannot be combined");
+        }
+        if (batchOnly && !options.batch) {
+            throw new IllegalArgumentException("Worker pool options require --batch");
+        }
+        if (serverOnly && options.server == null) {
+            throw new IllegalArgumentException("Server options require --server");
+        }
+        if (options.atomic && options.server != null) {
+            throw new IllegalArgumentException("--atomic does not apply to --server");
+        }
+        if (options.ordered && !options.combined) {
+            throw new IllegalArgumentException("--ordered requires --combined");
+        }
+        if (options.manifestPath != null && !options.incremental) {
+            throw new IllegalArgumentException("--manifest requires --incremental or --watch");
+        }
+        if (options.incremental && options.combined) {
+            throw new IllegalArgumentException("--incremental and --watch write one file per source and cannot be combined with --combined");
+        }
+        if (options.queueCapacity < 0) {
+            options.queueCapacity = options.threads * 4;
+        }
+
+        if (options.server != null) {
+            if (positional.size() != 1) {
+                throw new IllegalArgumentException("Expected <template-dir>");
+            }
+            options.templatePath = positional.get(0);
+            return options;
+        }
+        if (options.fanOut) {
+            if (positional.size() < 2) {
+                throw new IllegalArgumentException("Expected <source> <template=target>...");
+            }
+            options.sourcePath = positional.get(0);
+            for (String pair : positional.subList(1, positional.size())) {
+                if (pair.indexOf('=') <= 0 || pair.endsWith("=")) {
+                    throw new IllegalArgumentException("Expected <template=target>: " + pair);
+                }
+                options.fanOutTargets.add(pair);
+            }
+            return options;
+        }
+        if (positional.size() != 3) {
+            throw new IllegalArgumentException("Expected <template> <source> <target>");
+        }
+        options.templatePath = positional.get(0);
+        options.sourcePath = positional.get(1);
+        options.targetPath = positional.get(2);
+        return options;
+    }
+
+    public static String usage(String sourceName, String targetName, String... appOptionSpecs) {
+        String appUsage = appOptionSpecs.length == 0 ? ""
+                : "\n       app options: [" + String.join("] [", Arrays.asList(appOptionSpecs)) + "]";
+        return "Usage: java -jar app.jar [--atomic] [--compiled] [--metrics file.json|file.prom|-] <template.ftl> <" + sourceName + "> <" + targetName + ">\n"
+                + "       java -jar app.jar --batch [--atomic] [--compiled] [--metrics file] [--threads N] [--queue N] [--virtual-threads]"
+                + " [--combined [--ordered]] [--incremental|--watch [--manifest file]]"
+                + " <template.ftl> <source-dir|glob|@list-file> <target-dir|target-file>\n"
+                + "       java -jar app.jar --server http|stdin [--compiled] [--metrics file] [--port N] [--threads N]"
+                + " [--template-update-ms N] [--warm-up] <template-dir>\n"
+                + "       java -jar app.jar --ndjson [--atomic] [--compiled] [--metrics file] <template.ftl> <source.ndjson|-> <target|->\n"
+                + "       java -jar app.jar --fan-out [--atomic] [--compiled] [--metrics file] [--threads N] <" + sourceName + ">"
+                + " <template.ftl=target>..."
+                + appUsage;
+    }
+
+    private static String valueOf(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(option + " requires a positive number: " + value);
+    }
+
+    public boolean hasOption(String name) {
+        return appOptions.containsKey(name);
+    }
+
+    public String getOption(String name, String defaultValue) {
+        return appOptions.getOrDefault(name, defaultValue);
+    }
+
+    // App options given on the command line, "true" for those without a value
+    public Map<String, String> getAppOptions() {
+        return Collections.unmodifiableMap(appOptions);
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public boolean isNdjson() {
+        return ndjson;
+    }
+
+    public boolean isFanOut() {
+        return fanOut;
+    }
+
+    // template=target pairs of --fan-out, in command line order
+    public List<String> getFanOutTargets() {
+        return fanOutTargets;
+    }
+
+    public boolean isServer() {
+        return server != null;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getTemplateUpdateMillis() {
+        return templateUpdateMillis;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public boolean isCombined() {
+        return combined;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    // Skip sources whose inputs are unchanged since the last run; also set by --watch
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    // Manifest of an incremental batch; null for .transform-manifest.json in the target directory
+    public String getManifestPath() {
+        return manifestPath;
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    // Where --metrics writes its report, "-" for stderr; null when metrics are off
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    // Template file, or the template directory in server mode
+    public String getTemplatePath() {
+        return templatePath;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public String getTargetPath() {
+        return targetPath;
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import freemarker.cache.StrongCacheStorage;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateNotFoundException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Long-running transform loop. Templates are resolved by name through the
+// Configuration's template cache, which re-checks the file modification time
+// at most every templateUpdateMillis, so edits are picked up without a restart.
+//
+// A server may have several pipelines, one per kind of source, each with its
+// own Configuration and data model factory; requests name one with a source
+// parameter and otherwise go to the default pipeline.
+//
+// HTTP:  POST /transform/<template-name>[?source=<type>] with the source as the request body;
+//        GET /metrics for Prometheus text when --metrics is on
+// stdin: one JSON request per line, {"id":..,"template":"..","payload":{..}} or
+//        {"id":..,"template":"..","payloadBase64":".."}, with an optional "source":"<type>";
+//        one JSON response per line on stdout, {"id":..,"output":".."} or {"id":..,"error":".."}
+public class TransformServer {
+    private static final String TRANSFORM_PATH = "/transform/";
+    private static final String DEFAULT_SOURCE = "default";
+
+    private final Map<String, Pipeline> pipelines;
+    private final String defaultSource;
+    private final Gson gson = new Gson();
+    private boolean compiled;
+
+    public TransformServer(Configuration cfg, DataModelFactory modelFactory) {
+        this(Collections.singletonMap(DEFAULT_SOURCE, new Pipeline(cfg, modelFactory)), DEFAULT_SOURCE);
+    }
+
+    public TransformServer(Map<String, Pipeline> pipelines, String defaultSource) {
+        this.pipelines = new LinkedHashMap<>(pipelines);
+        this.defaultSource = defaultSource;
+    }
+
+    // Start the server described by the command line options; http returns once listening
+    public static void run(TransformOptions options, Configuration cfg, DataModelFactory modelFactory) throws IOException {
+        run(options, Collections.singletonMap(DEFAULT_SOURCE, new Pipeline(cfg, modelFactory)), DEFAULT_SOURCE);
+    }
+
+    public static void run(TransformOptions options, Map<String, Pipeline> pipelines, String defaultSource)
+            throws IOException {
+        for (Pipeline pipeline : pipelines.values()) {
+            Configuration cfg = pipeline.cfg;
+            cfg.setTemplateUpdateDelayMilliseconds(options.getTemplateUpdateMillis());
+            if (options.isWarmUp()) {
+                // Keep every precompiled template; the default storage holds only the 20 most recent strongly
+                cfg.setCacheStorage(new StrongCacheStorage());
+                TemplateWarmUp.precompile(cfg, Paths.get(options.getTemplatePath()), options.getThreads());
+            }
+        }
+        TransformServer server = new TransformServer(pipelines, defaultSource);
+        server.setCompiled(options.isCompiled());
+
+        if (options.getServer().equals("http")) {
+            HttpServer httpServer = server.startHttp(options.getPort(), options.getThreads());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> httpServer.stop(0)));
+            System.err.println("Listening on http://localhost:" + options.getPort() + TRANSFORM_PATH + "<template>");
+        } else {
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+    }
+
+    public String render(String templateName, byte[] payload) throws IOException, TemplateException {
+        return render(null, templateName, payload);
+    }
+
+    // Render through CompiledTemplate, compiled once per loaded template
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    // source names a pipeline, null for the default one
+    public String render(String source, String templateName, byte[] payload) throws IOException, TemplateException {
+        Pipeline pipeline = pipeline(source);
+        Template template = getTemplate(pipeline, templateName);
+        Object dataModel = createModel(pipeline, payload);
+        StringWriter writer = new StringWriter();
+        try (Metrics.Span span = Metrics.start("render")) {
+            template.process(dataModel, writer);
+        }
+        return writer.toString();
+    }
+
+    public void render(String templateName, byte[] payload, OutputSink sink) throws IOException, TemplateException {
+        render(null, templateName, payload, sink);
+    }
+
+    public void render(String source, String templateName, byte[] payload, OutputSink sink)
+            throws IOException, TemplateException {
+        Pipeline pipeline = pipeline(source);
+        Template template = getTemplate(pipeline, templateName);
+        sink.render(template, createModel(pipeline, payload));
+    }
+
+    private Pipeline pipeline(String source) {
+        Pipeline pipeline = pipelines.get(source == null ? defaultSource : source);
+        if (pipeline == null) {
+            throw new IllegalArgumentException("Unknown source type: " + source + ", expected one of " + pipelines.keySet());
+        }
+        return pipeline;
+    }
+
+    private Template getTemplate(Pipeline pipeline, String templateName) throws IOException {
+        try (Metrics.Span span = Metrics.start("template")) {
+            Template template = pipeline.cfg.getTemplate(templateName);
+            return compiled ? CompiledTemplate.compile(template) : template;
+        }
+    }
+
+    private static Object createModel(Pipeline pipeline, byte[] payload) throws IOException, TemplateException {
+        try (Metrics.Span span = Metrics.start("parse")) {
+            return pipeline.modelFactory.create(payload);
+        }
+    }
+
+    // Bound to the loopback interface only; the server is meant for local pipelines
+    public HttpServer startHttp(int port, int threads) throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/health", exchange -> respond(exchange, 200, "OK"));
+        if (Metrics.isEnabled()) {
+            // Prometheus text format
+            httpServer.createContext("/metrics", exchange -> respond(exchange, 200, Metrics.toPrometheus()));
+        }
+        httpServer.createContext(TRANSFORM_PATH, this::handleTransform);
+        httpServer.start();
+        return httpServer;
+    }
+
+    private void handleTransform(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST");
+            return;
+        }
+        String templateName = exchange.getRequestURI().getPath().substring(TRANSFORM_PATH.length());
+        if (templateName.isEmpty()) {
+            respond(exchange, 400, "Missing template name");
+            return;
+        }
+
+        byte[] payload;
+        try (InputStream in = exchange.getRequestBody()) {
+            payload = in.readAllBytes();
+        }
+        try {
+            // Rendered as UTF-8 bytes, since the length has to be known before the body is sent
+            BufferOutputSink output = new BufferOutputSink();
+            render(sourceParameter(exchange.getRequestURI().getRawQuery()), templateName, payload, output);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, output.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                output.writeTo(out);
+            }
+        } catch (TemplateNotFoundException e) {
+            respond(exchange, 404, "Error: " + e.getMessage());
+        } catch (TemplateException | JsonParseException | IllegalArgumentException e) {
+            respond(exchange, 400, "Error: " + e.getMessage());
+        } catch (IOException e) {
+            respond(exchange, 500, "Error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Anything else, e.g. a read* call out of bounds; the client still gets a response
+            respond(exchange, 500, "Error: " + e);
+        }
+    }
+
+    // Value of source=... in a query string, or null
+    private static String sourceParameter(String query) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("source=")) {
+                return URLDecoder.decode(parameter.substring("source=".length()), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Newline-delimited request loop; runs until the input is closed
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        PrintWriter writer = new PrintWriter(out);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            writer.println(gson.toJson(handleLine(line)));
+            writer.flush();
+        }
+    }
+
+    private JsonObject handleLine(String line) {
+        JsonObject response = new JsonObject();
+        try {
+            JsonObject request = JsonParser.parseString(line).getAsJsonObject();
+            if (request.has("id")) {
+                response.add("id", request.get("id"));
+            }
+            if (!request.has("template")) {
+                throw new IllegalArgumentException("Missing template");
+            }
+
+            byte[] payload;
+            if (request.has("payloadBase64")) {
+                payload = Base64.getDecoder().decode(request.get("payloadBase64").getAsString());
+            } else {
+                JsonElement element = request.get("payload");
+                payload = element == null ? new byte[0] : gson.toJson(element).getBytes(StandardCharsets.UTF_8);
+            }
+            String source = request.has("source") ? request.get("source").getAsString() : null;
+            response.addProperty("output", render(source, request.get("template").getAsString(), payload));
+        } catch (Exception e) {
+            response.addProperty("error", e.getMessage());
+        }
+        return response;
+    }
+
+    // One kind of source the server accepts
+    public static final class Pipeline {
+        private final Configuration cfg;
+        private final DataModelFactory modelFactory;
+
+        public Pipeline(Configuration cfg, DataModelFactory modelFactory) {
+            this.cfg = cfg;
+            this.modelFactory = modelFactory;
+        }
+    }
+}
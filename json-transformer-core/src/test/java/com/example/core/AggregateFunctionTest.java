@@ -0,0 +1,144 @@
+package com.example.core;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregateFunctionTest {
+    private static final String EMPLOYEES = "{\"e\": ["
+            + "{\"id\": 1, \"name\": \"carol\", \"dept\": \"eng\", \"salary\": 120000, \"rating\": 4.5},"
+            + "{\"id\": 2, \"name\": \"alice\", \"dept\": \"ops\", \"salary\": 90000, \"rating\": 3},"
+            + "{\"id\": 3, \"name\": \"bob\", \"dept\": \"eng\", \"rating\": null},"
+            + "{\"id\": 4, \"name\": \"dave\", \"dept\": \"eng\", \"salary\": 120000, \"rating\": 2.5},"
+            + "{\"id\": 5, \"name\": \"erin\", \"salary\": 60000}"
+            + "], \"numbers\": [4, 1.5, 3], \"empty\": []}";
+
+    @Test
+    void statistics() throws Exception {
+        assertResult("390000 97500 60000 120000", "${sum(e, \"salary\")} ${avg(e, \"salary\")} ${min(e, \"salary\")} ${max(e, \"salary\")}");
+        assertResult("10 3.333 2.5 4.5", "${sum(e, \"rating\")} ${avg(e, \"rating\")?string(\"0.###\")} ${min(e, \"rating\")} ${max(e, \"rating\")}");
+        assertResult("8.5 1.5 4", "${sum(numbers)} ${min(numbers)} ${max(numbers)}");
+    }
+
+    @Test
+    void statisticsOfNothing() throws Exception {
+        assertResult("0 none none 0", "${sum(e, \"bonus\")} ${avg(e, \"bonus\")!\"none\"} ${max(e, \"bonus\")!\"none\"}"
+                + " ${sum(e?filter(x -> false), \"salary\")}");
+    }
+
+    @Test
+    void groupBy() throws Exception {
+        assertResult("eng=1,3,4;ops=2;",
+                "<#list groupBy(e, \"dept\") as dept, members>${dept}=<#list members as m>${m.id}<#sep>,</#list>;</#list>");
+        assertResult("120000=1,4;90000=2;60000=5;",
+                "<#list groupBy(e, \"salary\") as salary, members>${salary}=<#list members as m>${m.id}<#sep>,</#list>;</#list>");
+    }
+
+    @Test
+    void negativeZeroIsGroupedWithZero() throws Exception {
+        String json = "{\"e\": [{\"id\": 1, \"delta\": 0.0}, {\"id\": 2, \"delta\": 1}, {\"id\": 3, \"delta\": -0.0},"
+                + " {\"id\": 4, \"delta\": -1}, {\"id\": 5, \"delta\": 0}]}";
+        String template = "<#list groupBy(e, \"delta\") as delta, members>${delta}=<#list members as m>${m.id}<#sep>,</#list>;</#list>"
+                + "|<#list sortBy(e, \"delta\") as x>${x.id} </#list>";
+        byte[] source = json.getBytes(StandardCharsets.UTF_8);
+        for (boolean columnar : new boolean[] {true, false}) {
+            assertEquals("0=1,3,5;1=2;-1=4;|4 1 3 5 2 ", render(template, source, columnar), columnar ? "columnar" : "plain");
+        }
+    }
+
+    @Test
+    void topN() throws Exception {
+        // Largest first, ties in sequence order, elements without the field left out
+        assertResult("1 4 2 ", "<#list topN(e, \"salary\", 3) as x>${x.id} </#list>");
+        assertResult("1 4 2 5 ", "<#list topN(e, \"salary\", 10) as x>${x.id} </#list>");
+        assertResult("0", "${topN(e, \"salary\", 0)?size}");
+        assertResult("5 ", "<#list topN(e, \"name\", 1) as x>${x.id} </#list>");
+    }
+
+    @Test
+    void sortBy() throws Exception {
+        // Ascending and stable, elements without the field last in their order
+        assertResult("5 2 1 4 3 ", "<#list sortBy(e, \"salary\") as x>${x.id} </#list>");
+        assertResult("2 3 1 4 5 ", "<#list sortBy(e, \"name\") as x>${x.id} </#list>");
+        assertResult("4 2 1 3 5 ", "<#list sortBy(e, \"rating\") as x>${x.id} </#list>");
+        // The sorted sequence is itself columnar again, so functions can be chained
+        assertResult("2 ", "<#list topN(sortBy(e, \"name\"), \"salary\", 3)?filter(x -> x.dept == \"ops\") as x>${x.id} </#list>");
+    }
+
+    @Test
+    void invalidArgumentsAreReported() {
+        assertError("sum requires 1-2 arguments", "${sum()}");
+        assertError("topN requires 3 arguments", "${topN(e, \"salary\")?size}");
+        assertError("the first argument must be a sequence", "${sum(\"x\")}");
+        assertError("is not a number", "${sum(e, \"name\")}");
+        assertError("must be hashes", "${sum(numbers, \"x\")}");
+        assertError("n must be a number", "${topN(e, \"salary\", \"3\")?size}");
+    }
+
+    @Test
+    void largeArraysGiveTheResultsOfSmallOnes() throws Exception {
+        // Above PARALLEL_THRESHOLD the column paths fork; the plain model takes the sequential path
+        int count = AggregateFunction.PARALLEL_THRESHOLD * 2 + 7;
+        Random random = new Random(42);
+        long[] salaries = new long[count];
+        StringBuilder json = new StringBuilder("{\"e\": [");
+        for (int i = 0; i < count; i++) {
+            salaries[i] = random.nextInt(1000);
+            json.append(i > 0 ? "," : "").append("{\"id\": ").append(i).append(", \"salary\": ").append(salaries[i]).append('}');
+        }
+        json.append("]}");
+        byte[] source = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        long sum = Arrays.stream(salaries).sum();
+        Comparator<Integer> bySalary = Comparator.comparingLong(i -> salaries[i]);
+        String sorted = IntStream.range(0, count).boxed().sorted(bySalary)
+                .map(String::valueOf).collect(Collectors.joining(" "));
+        String top = IntStream.range(0, count).boxed().sorted(bySalary.reversed()).limit(5)
+                .map(String::valueOf).collect(Collectors.joining(" "));
+
+        String template = "${sum(e, \"salary\")}|<#list sortBy(e, \"salary\") as x>${x.id}<#sep> </#list>"
+                + "|<#list topN(e, \"salary\", 5) as x>${x.id}<#sep> </#list>|${groupBy(e, \"salary\")?keys?size}";
+        String expected = sum + "|" + sorted + "|" + top + "|" + Arrays.stream(salaries).distinct().count();
+        assertEquals(expected, render(template, source, true));
+        assertEquals(expected, render(template, source, false));
+    }
+
+    // Same result on the columnar model and, through the template models, on plain JSON arrays
+    private static void assertResult(String expected, String template) throws Exception {
+        byte[] source = EMPLOYEES.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, render(template, source, true), "columnar");
+        assertEquals(expected, render(template, source, false), "plain");
+    }
+
+    private static void assertError(String message, String template) {
+        for (boolean columnar : new boolean[] {true, false}) {
+            TemplateException e = assertThrows(TemplateException.class,
+                    () -> render(template, EMPLOYEES.getBytes(StandardCharsets.UTF_8), columnar));
+            assertTrue(e.getMessage().contains(message), e.getMessage());
+        }
+    }
+
+    private static String render(String source, byte[] json, boolean columnar) throws Exception {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setObjectWrapper(new JsonElementWrapper(columnar));
+        cfg.setNumberFormat("computer");
+        cfg.setLogTemplateExceptions(false);
+        AggregateFunction.register(cfg);
+        StringWriter out = new StringWriter();
+        new Template("aggregate", source, cfg).process(JsonElementWrapper.parse(json, columnar), out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateHashModel;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class ColumnarArrayTest {
+    // Every type of column, keys in differing orders, null and missing members
+    private static final String ROWS = "{\"rows\": ["
+            + "{\"id\": 1, \"name\": \"a\", \"score\": 1.5, \"flag\": true, \"tags\": [\"x\"], \"none\": null},"
+            + "{\"name\": \"b\", \"id\": 2, \"score\": 2, \"extra\": {\"k\": \"v\"}, \"none\": null},"
+            + "{\"id\": 3, \"score\": null, \"mixed\": \"text\"},"
+            + "{\"flag\": false, \"id\": 4, \"name\": \"d\", \"mixed\": 7, \"big\": 12345678901234567890}"
+            + "], \"empty\": [], \"numbers\": [3, 1, 2]}";
+    private static final String DUMP = "<#macro dump v><#if v?is_number>${v?c}<#elseif v?is_boolean>${v?c}"
+            + "<#elseif v?is_string>\"${v}\"<#elseif v?is_hash_ex>{<#list v as k, x>${k}=<#if x??><@dump x/><#else>null</#if>"
+            + "<#sep>, </#list>}<#elseif v?is_sequence>[<#list v as x><#if x??><@dump x/><#else>null</#if><#sep>, </#list>]"
+            + "</#if></#macro>";
+
+    @Test
+    void rowsRenderAsWithTheOtherModels() throws Exception {
+        String template = DUMP + "<@dump rows/>\n"
+                + "${rows?size} ${empty?size} ${numbers?join(\",\")}\n"
+                + "<#list rows as r>${r?keys?join(\",\")}|${r?values?size}|${r.name!\"-\"}|${r.mixed!\"-\"}|"
+                + "${(r.extra.k)!\"-\"}|${r.none???c}|${r?size}\n</#list>"
+                + "${rows[1].id} ${rows[3].flag?c} ${(rows[9].id)!\"out of range\"} ${rows?first.name} ${rows?last.id}\n"
+                + "<#list rows?filter(r -> r.score??) as r>${r.id} </#list>\n";
+
+        assertSameOutput(template, ROWS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sampleTemplatesRenderAsWithTheOtherModels() throws Exception {
+        for (Path app : Arrays.asList(Paths.get("..", "json-transformer-app"), Paths.get("..", "json-transformer-complex-app"))) {
+            assertSameOutput(Files.readString(app.resolve("template.ftl")), Files.readAllBytes(app.resolve("source.json")));
+        }
+    }
+
+    @Test
+    void onlyNonEmptyArraysOfObjectsAreColumnar() throws Exception {
+        TemplateHashModel model = JsonElementWrapper.parse(ROWS.getBytes(StandardCharsets.UTF_8), true);
+
+        assertInstanceOf(ColumnarArray.class, model.get("rows"));
+        assertFalse(model.get("empty") instanceof ColumnarArray);
+        assertFalse(model.get("numbers") instanceof ColumnarArray);
+        assertFalse(JsonElementWrapper.parse(ROWS.getBytes(StandardCharsets.UTF_8), false).get("rows") instanceof ColumnarArray);
+    }
+
+    // The Gson Map model, the lazy model and the columnar model give the same output
+    private static void assertSameOutput(String source, byte[] json) throws Exception {
+        Object full = new Gson().fromJson(new String(json, StandardCharsets.UTF_8), Map.class);
+        String expected = render(new Template("full", source, new Configuration(Configuration.VERSION_2_3_32)), full);
+
+        assertEquals(expected, render(new Template("lazy", source, configuration(false)),
+                JsonElementWrapper.parse(json, false)));
+        assertEquals(expected, render(new Template("columnar", source, configuration(true)),
+                JsonElementWrapper.parse(json, true)));
+    }
+
+    private static Configuration configuration(boolean columnar) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setObjectWrapper(new JsonElementWrapper(columnar));
+        return cfg;
+    }
+
+    private static String render(Template template, Object model) throws Exception {
+        StringWriter out = new StringWriter();
+        template.process(model, out);
+        return out.toString();
+    }
+}
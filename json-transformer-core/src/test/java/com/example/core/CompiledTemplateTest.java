@@ -0,0 +1,177 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledTemplateTest {
+    private static final Path COMPLEX_APP = Paths.get("..", "json-transformer-complex-app");
+    private static final String COMPANY = "{\"company\": {\"name\": \"Tech Corp\", \"city\": \" Zürich \","
+            + " \"departments\": [{\"name\": \"Engineering\", \"skills\": [\"Java\", \"Go\"], \"budget\": 1234567.5,"
+            + " \"employees\": [{\"name\": \"Alice\", \"salary\": 120000}, {\"name\": \"Bob\", \"salary\": 110000}]},"
+            + " {\"name\": \"Sales\", \"skills\": [], \"budget\": 2, \"employees\": []}]}}";
+
+    @Test
+    void sampleTemplatesRenderAsInterpreted() throws Exception {
+        for (Path app : Arrays.asList(Paths.get("..", "json-transformer-app"), COMPLEX_APP)) {
+            byte[] source = Files.readAllBytes(app.resolve("source.json"));
+            for (boolean lazy : new boolean[] {false, true}) {
+                Configuration cfg = configuration(lazy);
+                cfg.setDirectoryForTemplateLoading(app.toFile());
+                Template template = cfg.getTemplate("template.ftl");
+
+                assertInstanceOf(CompiledTemplate.class, CompiledTemplate.compile(template), app.toString());
+                assertSameOutput(template, model(source, lazy));
+            }
+        }
+    }
+
+    @Test
+    void builtInsAndDirectivesRenderAsInterpreted() throws Exception {
+        assertSameOutput("${company.name?upper_case} ${company.city?trim}|${company.city?lower_case}|\n"
+                + "<#list company.departments as d>\n"
+                + "  ${d.name}: ${d.skills?join(\", \")} (${d.skills?size}) ${d.budget} ${d.budget?string(\"0.00\")}\n"
+                + "  <#if d.employees?has_content>\n"
+                + "    <#list d.employees as e>${e.name}=${e.salary?string(\",###\")}<#sep>, </#list>\n"
+                + "  </#if>\n"
+                + "</#list>\n"
+                + "<#assign first = company.departments[0]>${first.name} ${company.departments[1].budget}\n"
+                + "${company.missing!\"default\"} ${(company.departments[5].name)!\"none\"}\n");
+    }
+
+    @Test
+    void settingsChangedByDirectivesApplyToCompiledParts() throws Exception {
+        assertSameOutput("${company.departments[0].budget}\n"
+                + "<#setting number_format=\"0.000\">${company.departments[0].budget}\n"
+                + "<#setting locale=\"de_DE\">${company.departments[0].budget} ${company.departments[0].budget?string(\",##0.0\")}\n");
+    }
+
+    @Test
+    void whitespaceIsStrippedAsInterpreted() throws Exception {
+        assertSameOutput("<#-- comment line -->\n"
+                + "start\n"
+                + "    <#list company.departments as d>\n"
+                + "    ${d.name}\n"
+                + "    </#list>\n"
+                + "    <#assign x = 1>\n"
+                + "end ${x}\n");
+    }
+
+    @Test
+    void ftlHeaderSettingsApply() throws Exception {
+        String body = "\n"
+                + "    <#list company.departments as d>\n"
+                + "    ${d.name}\n"
+                + "    </#list>\n"
+                + "${company.name}\n";
+        assertSameOutput("<#ftl strip_whitespace=false>" + body);
+        assertSameOutput("<#ftl strip_text=true>" + body);
+        assertSameOutput("[#ftl]\n[#list company.departments as d]${d.name} [/#list]${company.name}\n");
+    }
+
+    @Test
+    void errorsReportTheInterpretersLine() throws Exception {
+        String source = "<#ftl strip_whitespace=false>\n"
+                + "first ${company.name}\n"
+                + "<#list company.departments as d>${d.name}</#list>\n"
+                + "missing ${company.departments[0].missing.name}\n";
+        Configuration cfg = configuration(false);
+        Template template = new Template("error", source, cfg);
+        Template compiled = CompiledTemplate.compile(template);
+        assertInstanceOf(CompiledTemplate.class, compiled);
+
+        TemplateException interpreted = assertThrows(TemplateException.class,
+                () -> render(template, model(COMPANY.getBytes(StandardCharsets.UTF_8), false)));
+        TemplateException fromCompiled = assertThrows(TemplateException.class,
+                () -> render(compiled, model(COMPANY.getBytes(StandardCharsets.UTF_8), false)));
+
+        assertEquals(4, interpreted.getLineNumber());
+        assertEquals(interpreted.getLineNumber(), fromCompiled.getLineNumber());
+        assertEquals(interpreted.getColumnNumber(), fromCompiled.getColumnNumber());
+    }
+
+    @Test
+    void templatesWithMacrosAreNotCompiled() throws Exception {
+        Template template = new Template("macro", "<#macro m>x</#macro><@m/>", configuration(false));
+
+        assertSame(template, CompiledTemplate.compile(template));
+    }
+
+    @Test
+    void compiledFormIsCachedOnTheTemplate() throws Exception {
+        Template template = new Template("cached", "${company.name}", configuration(false));
+
+        Template compiled = CompiledTemplate.compile(template);
+        assertSame(compiled, CompiledTemplate.compile(template));
+        assertSame(compiled, CompiledTemplate.compile(compiled));
+        int[] counts = ((CompiledTemplate) compiled).partCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(0, counts[1]);
+    }
+
+    private static void assertSameOutput(String source) throws Exception {
+        for (boolean lazy : new boolean[] {false, true}) {
+            assertSameOutput(new Template("test", source, configuration(lazy)),
+                    model(COMPANY.getBytes(StandardCharsets.UTF_8), lazy));
+        }
+    }
+
+    // Through a StringWriter and through a ChannelWriter, where text parts are written pre-encoded
+    private static void assertSameOutput(Template template, Object model) throws Exception {
+        Template compiled = CompiledTemplate.compile(template);
+        assertInstanceOf(CompiledTemplate.class, compiled, template.getName());
+        String expected = render(template, model);
+
+        assertEquals(expected, render(compiled, model));
+        assertEquals(expected, renderEncoded(compiled, model));
+        assertTrue(((CompiledTemplate) compiled).partCounts()[0] > 0, "nothing compiled");
+    }
+
+    private static Configuration configuration(boolean lazy) {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setLogTemplateExceptions(false);
+        if (lazy) {
+            cfg.setObjectWrapper(new JsonElementWrapper());
+        }
+        return cfg;
+    }
+
+    private static Object model(byte[] source, boolean lazy) throws Exception {
+        return lazy ? JsonElementWrapper.parse(source)
+                : new Gson().fromJson(new String(source, StandardCharsets.UTF_8), Map.class);
+    }
+
+    private static String render(Template template, Object model) throws IOException, TemplateException {
+        StringWriter out = new StringWriter();
+        template.process(model, out);
+        return out.toString();
+    }
+
+    private static String renderEncoded(Template template, Object model) throws IOException, TemplateException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ChannelWriter out = new ChannelWriter(Channels.newChannel(bytes), false)) {
+            template.process(model, out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldTreeTest {
+    @Test
+    void keysAreNarrowedToTheAddedPaths() {
+        FieldTree tree = new FieldTree();
+        tree.add(Arrays.asList("company", "name"), false);
+        tree.add(Arrays.asList("company", "departments"), true);
+
+        FieldTree company = tree.key("company");
+        assertFalse(company.isFull());
+        assertTrue(company.key("name").isFull());
+        assertTrue(company.key("departments").isShape());
+        assertFalse(company.key("departments").isFull());
+        assertNull(company.key("founded"));
+        assertNull(tree.key("other"));
+    }
+
+    @Test
+    void fullNodeIgnoresLongerPaths() {
+        FieldTree tree = new FieldTree();
+        tree.add(Arrays.asList("company"), false);
+        tree.add(Arrays.asList("company", "name"), false);
+
+        assertTrue(tree.key("company").isFull());
+        assertNull(tree.key("company").key("name"));
+    }
+
+    @Test
+    void specificIndexIsMergedWithAnyIndex() {
+        FieldTree tree = new FieldTree();
+        tree.add(Arrays.asList("items", 0, "id"), false);
+        tree.add(Arrays.asList("items", FieldTree.ANY_INDEX, "name"), false);
+
+        FieldTree items = tree.key("items");
+        FieldTree first = items.index(0);
+        assertTrue(first.key("id").isFull());
+        assertTrue(first.key("name").isFull());
+        FieldTree second = items.index(1);
+        assertNull(second.key("id"));
+        assertTrue(second.key("name").isFull());
+        assertSame(first, items.index(0));
+    }
+
+    @Test
+    void unlistedIndexIsNotNeeded() {
+        FieldTree tree = new FieldTree();
+        tree.add(Arrays.asList("items", 2), false);
+
+        FieldTree items = tree.key("items");
+        assertNull(items.index(0));
+        assertTrue(items.index(2).isFull());
+    }
+
+    @Test
+    void mergedIndexIsSharedAcrossThreads() throws Exception {
+        FieldTree tree = new FieldTree();
+        for (int i = 0; i < 64; i++) {
+            tree.add(Arrays.asList("items", i, "id"), false);
+        }
+        tree.add(Arrays.asList("items", FieldTree.ANY_INDEX, "name"), false);
+        FieldTree items = tree.key("items");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<List<FieldTree>> reader = () -> IntStream.range(0, 64).mapToObj(items::index)
+                    .collect(Collectors.toList());
+            List<Future<List<FieldTree>>> results = executor.invokeAll(Arrays.asList(reader, reader, reader, reader));
+            List<FieldTree> expected = results.get(0).get();
+            for (Future<List<FieldTree>> result : results) {
+                List<FieldTree> nodes = result.get();
+                for (int i = 0; i < 64; i++) {
+                    assertSame(expected.get(i), nodes.get(i));
+                    assertNotNull(nodes.get(i).key("id"));
+                    assertNotNull(nodes.get(i).key("name"));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
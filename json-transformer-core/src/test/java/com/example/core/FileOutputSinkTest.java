@@ -0,0 +1,90 @@
+package com.example.core;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FileOutputSinkTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void failedRenderKeepsTheExistingTarget() throws Exception {
+        for (boolean atomic : new boolean[] {false, true}) {
+            Path target = Files.writeString(dir.resolve("existing-" + atomic + ".json"), "previous output");
+
+            assertThrows(TemplateException.class, () -> OutputSink.toFile(target, atomic).render(template(), Map.of()));
+
+            assertEquals("previous output", Files.readString(target));
+        }
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void failedRenderLeavesNoNewTarget() throws Exception {
+        for (boolean atomic : new boolean[] {false, true}) {
+            Path target = dir.resolve("new-" + atomic + ".json");
+
+            assertThrows(TemplateException.class, () -> OutputSink.toFile(target, atomic).render(template(), Map.of()));
+
+            assertFalse(Files.exists(target));
+        }
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void committedOutputReplacesTheTarget() throws Exception {
+        for (boolean atomic : new boolean[] {false, true}) {
+            Path existing = Files.writeString(dir.resolve("existing-" + atomic + ".json"), "a much longer previous output");
+            Path created = dir.resolve("new-" + atomic + ".json");
+
+            OutputSink.toFile(existing, atomic).render(template(), Map.of("name", "x"));
+            OutputSink.toFile(created, atomic).render(template(), Map.of("name", "y"));
+
+            assertEquals("name x", Files.readString(existing));
+            assertEquals("name y", Files.readString(created));
+        }
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    void replacedTargetKeepsItsPermissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        for (boolean atomic : new boolean[] {false, true}) {
+            Path target = Files.writeString(dir.resolve("existing-" + atomic + ".json"), "previous output");
+            Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rw-r--r--"));
+
+            OutputSink.toFile(target, atomic).render(template(), Map.of("name", "x"));
+
+            assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+        }
+    }
+
+    private void assertNoTemporaryFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    // Fails on a model without "name"
+    private static Template template() throws IOException {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setLogTemplateExceptions(false);
+        return new Template("test", "name ${name}", cfg);
+    }
+}
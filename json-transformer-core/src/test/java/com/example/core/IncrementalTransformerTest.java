@@ -0,0 +1,221 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalTransformerTest {
+    @TempDir
+    Path dir;
+
+    private Path templates;
+    private Path sources;
+    private Path target;
+    private final CountingAdapter adapter = new CountingAdapter();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        templates = Files.createDirectories(dir.resolve("templates"));
+        sources = Files.createDirectories(dir.resolve("sources"));
+        target = dir.resolve("target");
+        Files.writeString(templates.resolve("main.ftl"), "${name}<#include \"footer.ftl\">");
+        Files.writeString(templates.resolve("footer.ftl"), " (footer)");
+        for (String name : Arrays.asList("a", "b", "c")) {
+            Files.writeString(sources.resolve(name + ".json"), "{\"name\": \"" + name + "\"}");
+        }
+    }
+
+    @Test
+    void secondRunRendersNothing() throws Exception {
+        assertEquals(0, run());
+        assertEquals(set("a.json", "b.json", "c.json"), adapter.takeRendered());
+        assertEquals("a (footer)", Files.readString(target.resolve("a.json")));
+        assertTrue(Files.exists(target.resolve(".transform-manifest.json")));
+
+        assertEquals(0, run());
+        assertEquals(set(), adapter.takeRendered());
+    }
+
+    @Test
+    void changedSourceIsRenderedAlone() throws Exception {
+        run();
+        adapter.takeRendered();
+
+        rewrite(sources.resolve("b.json"), "{\"name\": \"b2\"}");
+        run();
+
+        assertEquals(set("b.json"), adapter.takeRendered());
+        assertEquals("b2 (footer)", Files.readString(target.resolve("b.json")));
+    }
+
+    @Test
+    void touchedButUnchangedSourceIsNotRendered() throws Exception {
+        run();
+        adapter.takeRendered();
+
+        Path source = sources.resolve("a.json");
+        touch(source);
+        run();
+        assertEquals(set(), adapter.takeRendered());
+
+        // The new stamp was recorded, so the entry matches the source again without hashing it
+        TransformManifest manifest = TransformManifest.load(target.resolve(".transform-manifest.json"));
+        assertNotNull(manifest.get(source).sourceHash(TransformManifest.Stamp.of(source)));
+    }
+
+    @Test
+    void changedOrDeletedOutputIsRenderedAgain() throws Exception {
+        run();
+        adapter.takeRendered();
+
+        rewrite(target.resolve("a.json"), "edited by hand");
+        Files.delete(target.resolve("c.json"));
+        run();
+
+        assertEquals(set("a.json", "c.json"), adapter.takeRendered());
+        assertEquals("a (footer)", Files.readString(target.resolve("a.json")));
+        assertTrue(Files.exists(target.resolve("c.json")));
+    }
+
+    @Test
+    void templateOrIncludedTemplateChangeRendersEverything() throws Exception {
+        run();
+        adapter.takeRendered();
+
+        rewrite(templates.resolve("footer.ftl"), " (new footer)");
+        run();
+        assertEquals(set("a.json", "b.json", "c.json"), adapter.takeRendered());
+        assertEquals("a (new footer)", Files.readString(target.resolve("a.json")));
+
+        rewrite(templates.resolve("main.ftl"), "[${name}]<#include \"footer.ftl\">");
+        run();
+        assertEquals(set("a.json", "b.json", "c.json"), adapter.takeRendered());
+    }
+
+    @Test
+    void appOptionChangeRendersEverything() throws Exception {
+        run("--flavor", "plain");
+        adapter.takeRendered();
+
+        run("--flavor", "plain");
+        assertEquals(set(), adapter.takeRendered());
+
+        run("--flavor", "spicy");
+        assertEquals(set("a.json", "b.json", "c.json"), adapter.takeRendered());
+    }
+
+    @Test
+    void failedSourceIsRetriedAndRemovedSourceForgotten() throws Exception {
+        rewrite(sources.resolve("b.json"), "{\"name\": ");
+        assertEquals(1, run());
+        adapter.takeRendered();
+
+        assertEquals(1, run());
+        assertEquals(set("b.json"), adapter.takeRendered());
+
+        Files.delete(sources.resolve("b.json"));
+        assertEquals(0, run());
+        assertEquals(set(), adapter.takeRendered());
+        TransformManifest manifest = TransformManifest.load(target.resolve(".transform-manifest.json"));
+        assertNull(manifest.get(sources.resolve("b.json")));
+        assertNotNull(manifest.get(sources.resolve("a.json")));
+    }
+
+    private int run(String... appOptions) throws IOException, TemplateException {
+        String[] positional = {"--batch", "--incremental", "--threads", "2",
+                templates.resolve("main.ftl").toString(), sources.toString(), target.toString()};
+        String[] args = Arrays.copyOf(appOptions, appOptions.length + positional.length);
+        System.arraycopy(positional, 0, args, appOptions.length, positional.length);
+        TransformOptions options = TransformOptions.parse(args, adapter.optionSpecs());
+
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setDirectoryForTemplateLoading(templates.toFile());
+        cfg.setDefaultEncoding("UTF-8");
+        return new IncrementalTransformer(options, adapter, cfg, templates, "main.ftl").run();
+    }
+
+    // Different content with a modification time that cannot fall into the same millisecond
+    private static void rewrite(Path file, String content) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 2000));
+    }
+
+    private static void touch(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+    }
+
+    private static Set<String> set(String... names) {
+        return new TreeSet<>(Arrays.asList(names));
+    }
+
+    // JSON sources; remembers the file name of every source a model was created for
+    private static final class CountingAdapter implements SourceAdapter {
+        private final Set<String> rendered = new TreeSet<>();
+
+        @Override
+        public String name() {
+            return "json";
+        }
+
+        @Override
+        public String sourceName() {
+            return "source.json";
+        }
+
+        @Override
+        public String defaultGlob() {
+            return "*.json";
+        }
+
+        @Override
+        public String[] optionSpecs() {
+            return new String[] {"--flavor <name>"};
+        }
+
+        @Override
+        public DataModelFactory modelFactory(Template template) {
+            return new DataModelFactory() {
+                @Override
+                public Object create(byte[] content) {
+                    return new Gson().fromJson(new String(content, StandardCharsets.UTF_8), Map.class);
+                }
+
+                @Override
+                public Object create(Path source) throws IOException, TemplateException {
+                    synchronized (rendered) {
+                        rendered.add(source.getFileName().toString());
+                    }
+                    return DataModelFactory.super.create(source);
+                }
+            };
+        }
+
+        Set<String> takeRendered() {
+            synchronized (rendered) {
+                Set<String> names = new TreeSet<>(rendered);
+                rendered.clear();
+                return names;
+            }
+        }
+    }
+}
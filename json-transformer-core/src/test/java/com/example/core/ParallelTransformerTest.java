@@ -0,0 +1,155 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelTransformerTest {
+    private static final Gson GSON = new Gson();
+    // Sleeps for the source's "delay" before parsing, so later sources can finish first
+    private static final DataModelFactory DELAYED = content -> {
+        Map<?, ?> model = GSON.fromJson(new String(content, StandardCharsets.UTF_8), Map.class);
+        Object delay = model.get("delay");
+        if (delay != null) {
+            try {
+                Thread.sleep(((Number) delay).longValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return model;
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void combinedOrderedKeepsInputOrderAndCountsFailures() throws Exception {
+        List<Path> sources = sources(12, 3, 7);
+        String output = combined(sources, 4, 2, true, 2);
+
+        assertEquals(expected(12, 3, 7), output);
+    }
+
+    @Test
+    void combinedOrderedDrainsWhenThePoolIsSaturated() throws Exception {
+        // One permit: every submission has to wait for the previous result to be written
+        List<Path> sources = sources(5, 2);
+        String output = combined(sources, 1, 0, true, 1);
+
+        assertEquals(expected(5, 2), output);
+    }
+
+    @Test
+    void combinedUnorderedWritesEveryResultOnce() throws Exception {
+        List<Path> sources = sources(12, 3, 7);
+        String output = combined(sources, 4, 2, false, 2);
+
+        List<String> lines = new ArrayList<>(Arrays.asList(output.split("\n")));
+        lines.sort(null);
+        List<String> expected = new ArrayList<>(Arrays.asList(expected(12, 3, 7).split("\n")));
+        expected.sort(null);
+        assertEquals(expected, lines);
+    }
+
+    @Test
+    void transformEachWritesOneFilePerSourceAndCountsFailures() throws Exception {
+        List<Path> sources = sources(6, 1, 4);
+        Path target = Files.createDirectories(dir.resolve("out"));
+        List<Path> rendered = new ArrayList<>();
+
+        int failed;
+        try (ParallelTransformer transformer = new ParallelTransformer(template(), DELAYED, 3, 1, false, false)) {
+            failed = transformer.transformEach(sources, target, source -> {
+                synchronized (rendered) {
+                    rendered.add(source);
+                }
+            });
+        }
+
+        assertEquals(2, failed);
+        assertEquals(4, rendered.size());
+        for (int i = 0; i < sources.size(); i++) {
+            Path file = target.resolve("source" + i + ".json");
+            if (i == 1 || i == 4) {
+                assertFalse(Files.exists(file), file + " should not be written");
+            } else {
+                assertEquals("id " + i, Files.readString(file));
+            }
+        }
+    }
+
+    @Test
+    void transformEachAtomicLeavesNoTemporaryFiles() throws Exception {
+        List<Path> sources = sources(4, 2);
+        Path target = Files.createDirectories(dir.resolve("out"));
+
+        int failed;
+        try (ParallelTransformer transformer = new ParallelTransformer(template(), DELAYED, 2, 0, false, true)) {
+            failed = transformer.transformEach(sources, target);
+        }
+
+        assertEquals(1, failed);
+        try (Stream<Path> files = Files.list(target)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+        assertEquals(3, target.toFile().list().length);
+    }
+
+    private String combined(List<Path> sources, int threads, int queue, boolean ordered, int expectedFailures)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int failed;
+        try (ParallelTransformer transformer = new ParallelTransformer(template(), DELAYED, threads, queue, false, false);
+             ChannelWriter out = new ChannelWriter(Channels.newChannel(bytes), false)) {
+            failed = transformer.transformCombined(sources, out, ordered);
+        }
+        assertEquals(expectedFailures, failed);
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    // Sources with decreasing delays; the ones at failing indexes are not valid JSON
+    private List<Path> sources(int count, int... failing) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            boolean fails = Arrays.stream(failing).anyMatch(f -> f == index);
+            String content = fails ? "{\"id\": " : "{\"id\": " + i + ", \"delay\": " + (count - i) * 5 + "}";
+            sources.add(Files.writeString(dir.resolve("source" + i + ".json"), content));
+        }
+        return sources;
+    }
+
+    private static String expected(int count, int... failing) {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            if (Arrays.stream(failing).noneMatch(f -> f == index)) {
+                expected.append("id ").append(i).append('\n');
+            }
+        }
+        return expected.toString();
+    }
+
+    private static Template template() throws IOException {
+        return new Template("test", "id ${id}", new Configuration(Configuration.VERSION_2_3_32));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.core;
+
+import com.google.gson.Gson;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SparseModelFactoryTest {
+    private static final Path COMPLEX_APP = Paths.get("..", "json-transformer-complex-app");
+    private static final Path APP = Paths.get("..", "json-transformer-app");
+
+    @Test
+    void sampleTemplatesRenderAsWithTheFullModel() throws Exception {
+        for (Path app : Arrays.asList(APP, COMPLEX_APP)) {
+            Configuration cfg = configuration(app.toFile());
+            Template template = cfg.getTemplate("template.ftl");
+            byte[] source = Files.readAllBytes(app.resolve("source.json"));
+
+            assertEquals(render(template, full(source)), render(template, new SparseModelFactory(template).create(source)),
+                    app.toString());
+        }
+    }
+
+    @Test
+    void loopsAndIndexesRenderAsWithTheFullModel() throws Exception {
+        byte[] source = Files.readAllBytes(COMPLEX_APP.resolve("source.json"));
+        Template template = new Template("loops", "<#list company.departments as d>${d.name} ${d.employees?size}"
+                + "<#list d.employees as e> ${e.name}<#if e?has_next>,</#if></#list>\n</#list>"
+                + "${company.departments[1].employees[0].salary} ${company.metadata?has_content?c}",
+                configuration(COMPLEX_APP.toFile()));
+
+        assertEquals(render(template, full(source)), render(template, new SparseModelFactory(template).create(source)));
+    }
+
+    @Test
+    void shadowedLoopVariablesAreRestoredAfterTheInnerLoop() throws Exception {
+        byte[] source = Files.readAllBytes(COMPLEX_APP.resolve("source.json"));
+        Configuration cfg = configuration(COMPLEX_APP.toFile());
+        for (String text : Arrays.asList(
+                "<#list company.departments as d><#list d.employees as d>${d.name};</#list>${d.name}|</#list>",
+                "<#list company.departments as d><#list d.employees><#items as d>${d.name};</#items></#list>${d.name}|</#list>",
+                "<#list company.departments as d><#list d.employees?filter(e -> e.salary > 0) as d>${d.role};</#list>"
+                        + "${d.id}|</#list>")) {
+            Template template = new Template("shadowed", text, cfg);
+
+            assertEquals(render(template, full(source)), render(template, new SparseModelFactory(template).create(source)),
+                    text);
+        }
+        Template template = new Template("shadowed", "<#list company.departments as d><#list d.employees as d>${d.name};"
+                + "</#list>${d.name}|</#list>", cfg);
+        assertEquals("Alice Johnson;Bob Smith;Engineering|Carol White;Sales|",
+                render(template, new SparseModelFactory(template).create(source)));
+    }
+
+    @Test
+    void unreferencedFieldsAndElementsAreSkipped() throws Exception {
+        String json = "{\"company\": {\"name\": \"Acme\", \"founded\": 2010, \"departments\": ["
+                + "{\"name\": \"a\", \"budget\": 1}, {\"name\": \"b\", \"budget\": 2}, {\"name\": \"c\"}]},"
+                + " \"other\": [1, 2, 3]}";
+        Template template = new Template("skip", "${company.departments[1].name}",
+                new Configuration(Configuration.VERSION_2_3_32));
+
+        Map<?, ?> model = (Map<?, ?>) new SparseModelFactory(template).create(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, model.size());
+        Map<?, ?> company = (Map<?, ?>) model.get("company");
+        assertEquals(1, company.size());
+        List<?> departments = (List<?>) company.get("departments");
+        // Indexes and sizes stay as in the document
+        assertEquals(3, departments.size());
+        assertNull(departments.get(0));
+        assertEquals(Map.of("name", "b"), departments.get(1));
+        assertNull(departments.get(2));
+    }
+
+    @Test
+    void sizeOnlyReadsTheLengthOfAnArray() throws Exception {
+        String json = "{\"items\": [{\"id\": 1}, {\"id\": 2}]}";
+        Template template = new Template("size", "${items?size}", new Configuration(Configuration.VERSION_2_3_32));
+
+        Map<?, ?> model = (Map<?, ?>) new SparseModelFactory(template).create(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList(null, null), model.get("items"));
+        assertEquals("2", render(template, model));
+    }
+
+    @Test
+    void templatesReachingDataIndirectlyAreRejected() throws Exception {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        for (String source : Arrays.asList("<#include \"other.ftl\">", "${.vars['x']}", "${\"x\"?eval}",
+                "<#assign t = .get_optional_template(\"other.ftl\")>")) {
+            Template template = new Template("indirect", source, cfg);
+            assertThrows(IllegalArgumentException.class, () -> new SparseModelFactory(template), source);
+        }
+    }
+
+    @Test
+    void invalidJsonIsAnIOException() throws Exception {
+        Template template = new Template("name", "${name}", new Configuration(Configuration.VERSION_2_3_32));
+        SparseModelFactory factory = new SparseModelFactory(template);
+
+        assertThrows(IOException.class, () -> factory.create("[1, 2]".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> factory.create("{\"name\": ".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Object full(byte[] source) {
+        return new Gson().fromJson(new String(source, StandardCharsets.UTF_8), Map.class);
+    }
+
+    private static Configuration configuration(File templateDir) throws IOException {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setDirectoryForTemplateLoading(templateDir);
+        cfg.setDefaultEncoding("UTF-8");
+        return cfg;
+    }
+
+    private static String render(Template template, Object model) throws Exception {
+        StringWriter out = new StringWriter();
+        template.process(model, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransformManifestTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void hashSeparatesItsParts() {
+        assertNotEquals(TransformManifest.hash("ab", "c"), TransformManifest.hash("a", "bc"));
+        assertEquals(TransformManifest.hash("a", "b"), TransformManifest.hash("a", "b"));
+        assertEquals(64, TransformManifest.hash("a").length());
+    }
+
+    @Test
+    void fileHashDependsOnContentOnly() throws IOException {
+        Path a = Files.writeString(dir.resolve("a.json"), "{}");
+        Path b = Files.writeString(dir.resolve("b.json"), "{}");
+        Path c = Files.writeString(dir.resolve("c.json"), "[]");
+
+        assertEquals(TransformManifest.hash(a), TransformManifest.hash(b));
+        assertNotEquals(TransformManifest.hash(a), TransformManifest.hash(c));
+    }
+
+    @Test
+    void entryIsCurrentWhileInputAndOutputAreUnchanged() throws IOException {
+        Path source = Files.writeString(dir.resolve("a.json"), "{}");
+        Path target = Files.writeString(dir.resolve("a.out"), "output");
+        TransformManifest.Stamp sourceStamp = TransformManifest.Stamp.of(source);
+        TransformManifest.Stamp outputStamp = TransformManifest.Stamp.of(target);
+        TransformManifest.Entry entry = new TransformManifest.Entry("source-hash", sourceStamp, "input", target,
+                "output-hash", outputStamp);
+
+        assertEquals("source-hash", entry.sourceHash(sourceStamp));
+        assertTrue(entry.isCurrent("input", target, outputStamp));
+        assertFalse(entry.isCurrent("other input", target, outputStamp));
+        assertFalse(entry.isCurrent("input", dir.resolve("b.out"), outputStamp));
+        assertFalse(entry.isCurrent("input", target, null));
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 2000));
+        Files.writeString(target, "edited");
+        assertNull(entry.sourceHash(TransformManifest.Stamp.of(source)));
+        assertFalse(entry.isCurrent("input", target, TransformManifest.Stamp.of(target)));
+    }
+
+    @Test
+    void savedEntriesAreLoadedAgain() throws IOException {
+        Path source = Files.writeString(dir.resolve("a.json"), "{}");
+        Path other = Files.writeString(dir.resolve("b.json"), "{}");
+        Path target = Files.writeString(dir.resolve("a.out"), "output");
+        Path file = dir.resolve("manifest.json");
+        TransformManifest manifest = TransformManifest.load(file);
+        TransformManifest.Stamp outputStamp = TransformManifest.Stamp.of(target);
+        manifest.put(source, new TransformManifest.Entry("source-hash", TransformManifest.Stamp.of(source), "input",
+                target, "output-hash", outputStamp));
+        manifest.put(other, new TransformManifest.Entry("other-hash", TransformManifest.Stamp.of(other), "input",
+                target, "output-hash", outputStamp));
+
+        assertTrue(manifest.retain(Collections.singletonList(source)));
+        assertFalse(manifest.retain(Arrays.asList(source, other)));
+        manifest.save();
+
+        TransformManifest loaded = TransformManifest.load(file);
+        assertEquals("source-hash", loaded.get(source).sourceHash(TransformManifest.Stamp.of(source)));
+        assertTrue(loaded.get(source).isCurrent("input", target, outputStamp));
+        assertNull(loaded.get(other));
+        // Sources are keyed by their absolute, normalized path
+        assertEquals("source-hash", loaded.get(dir.resolve("x/../a.json")).sourceHash(TransformManifest.Stamp.of(source)));
+    }
+
+    @Test
+    void missingOrUnreadableManifestIsEmpty() throws IOException {
+        Path source = Files.writeString(dir.resolve("a.json"), "{}");
+
+        assertNull(TransformManifest.load(dir.resolve("missing.json")).get(source));
+        Path broken = Files.writeString(dir.resolve("broken.json"), "{\"version\": ");
+        assertNull(TransformManifest.load(broken).get(source));
+        Path otherVersion = Files.writeString(dir.resolve("v0.json"),
+                "{\"version\": 0, \"entries\": {\"" + source.toAbsolutePath().toString().replace("\\", "\\\\")
+                        + "\": {\"source\": \"x\"}}}");
+        assertNull(TransformManifest.load(otherVersion).get(source));
+    }
+
+    @Test
+    void stampOfMissingFileIsNull() throws IOException {
+        assertNull(TransformManifest.Stamp.of(dir.resolve("missing.json")));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Turns single-key gets from many render threads into multi-key getAll calls
+// on the delegate. A get waits until its key is loaded; the keys requested
+// within one window (or until maxBatch keys are pending) go out together, and
+// a key requested again while pending shares the first request's result.
+// Batches are loaded on their own threads, so a slow store does not hold up
+// the collection of the next batch.
+public final class BatchingLookupSource implements LookupSource {
+    private final LookupSource delegate;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final ExecutorService loaders;
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+    private long windowEnd;
+
+    public BatchingLookupSource(LookupSource delegate, long windowMillis, int maxBatch) {
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.loaders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "lookup-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread dispatcher = new Thread(this::dispatch, "lookup-dispatch");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        CompletableFuture<String> result;
+        synchronized (lock) {
+            result = pending.get(key);
+            if (result == null) {
+                if (pending.isEmpty()) {
+                    windowEnd = System.nanoTime() + windowNanos;
+                }
+                result = new CompletableFuture<>();
+                pending.put(key, result);
+                if (pending.size() == 1 || pending.size() >= maxBatch) {
+                    lock.notifyAll();
+                }
+            }
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lookup of " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    // Already a batch: sent straight to the delegate
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws IOException {
+        return delegate.getAll(keys);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    private void dispatch() {
+        while (true) {
+            Map<String, CompletableFuture<String>> batch;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty()) {
+                        lock.wait();
+                    }
+                    long remaining;
+                    while (pending.size() < maxBatch && (remaining = windowEnd - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+            loaders.execute(() -> load(batch));
+        }
+    }
+
+    private void load(Map<String, CompletableFuture<String>> batch) {
+        try {
+            List<String> keys = new ArrayList<>(batch.keySet());
+            Map<String, String> values = delegate.getAll(keys);
+            batch.forEach((key, result) -> result.complete(values.get(key)));
+        } catch (IOException | RuntimeException e) {
+            batch.values().forEach(result -> result.completeExceptionally(e));
+        }
+    }
+}
@@ -1,95 +1,361 @@
 package com.example;
 
+import com.example.core.DataModelFactory;
+import com.example.core.FieldTree;
+import com.example.core.NdjsonTransformer.RecordModelFactory;
+import com.example.core.SourceAdapter;
+import com.example.core.SourceResolver;
+import com.example.core.SparseJsonReader;
+import com.example.core.TemplateFieldScanner;
+import com.example.core.TimedMethod;
+import com.example.core.TransformEngine;
+import com.example.core.TransformManifest;
+import com.example.core.TransformOptions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.gson.Gson;
+import freemarker.ext.util.WrapperTemplateModel;
 import freemarker.template.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-public class FunctionApp {
+// JSON sources enriched with the lookup, convert and format functions, as a
+// TransformEngine plugin named "function". A function is put into the data
+// model only if the template uses it, and the lookup cache and unit registry
+// are created on first use, so a short run of a template without lookup()
+// does not load Guava or the lookup source at all.
+public class FunctionApp implements SourceAdapter {
+    // Custom functions are stateless or thread-safe, so one set serves every document
+    private final Gson gson = new Gson();
+    private final FormatFunction format = new FormatFunction();
+    private TransformOptions options;
+    private long lookupSize;
+    private long lookupTtl;
+    private long lookupRefresh;
+    private CacheLookupFunction lookup;
+    private UnitConversionFunction convert;
+    private String prefetchField;
+    private boolean prepass;
+    private String sourcePath;
+
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.err.println("Usage: java -jar app.jar <template.ftl> <source.json> <target.json>");
-            System.exit(1);
+        TransformEngine.main(args, new FunctionApp());
+    }
+
+    @Override
+    public String name() {
+        return "function";
+    }
+
+    @Override
+    public String sourceName() {
+        return "source.json";
+    }
+
+    @Override
+    public String defaultGlob() {
+        return "*.json";
+    }
+
+    @Override
+    public String[] optionSpecs() {
+        return new String[] {"--lookup-source <file.csv|file.json|file.tsv>", "--lookup-size <entries>",
+                "--lookup-ttl-s <seconds>", "--lookup-refresh-s <seconds>", "--lookup-prefetch <field>",
+                "--lookup-stats", "--lookup-latency-ms <ms>", "--lookup-batch-ms <ms>", "--lookup-batch-size <keys>",
+                "--lookup-prepass", "--units <units.json>"};
+    }
+
+    @Override
+    public void init(TransformOptions options) {
+        this.options = options;
+        lookupSize = parsePositive(options, "--lookup-size", "100");
+        lookupTtl = parsePositive(options, "--lookup-ttl-s", "600");
+        lookupRefresh = options.hasOption("--lookup-refresh-s") ? parsePositive(options, "--lookup-refresh-s", null) : 0;
+        for (String option : new String[] {"--lookup-latency-ms", "--lookup-batch-ms", "--lookup-batch-size"}) {
+            if (options.hasOption(option)) {
+                parsePositive(options, option, null);
+            }
+        }
+        prepass = options.hasOption("--lookup-prepass");
+        if (prepass && !options.isBatch()) {
+            throw new IllegalArgumentException("--lookup-prepass requires --batch");
+        }
+        prefetchField = options.getOption("--lookup-prefetch", null);
+        sourcePath = options.getSourcePath();
+    }
+
+    private synchronized CacheLookupFunction lookup() throws IOException {
+        if (lookup == null) {
+            lookup = createLookup(options, lookupSize, lookupTtl, lookupRefresh);
+        }
+        return lookup;
+    }
+
+    private synchronized UnitConversionFunction convert() throws IOException {
+        if (convert == null) {
+            convert = new UnitConversionFunction(UnitRegistry.load(
+                    options.hasOption("--units") ? Paths.get(options.getOption("--units", null)) : null));
+        }
+        return convert;
+    }
+
+    @Override
+    public void configure(Configuration cfg) {
+        cfg.setNumberFormat("computer");
+    }
+
+    // lookup() and convert() results depend on the content of the lookup source and units files
+    @Override
+    public String fingerprint(TransformOptions options) throws IOException {
+        StringBuilder fingerprint = new StringBuilder(SourceAdapter.super.fingerprint(options));
+        for (String option : new String[] {"--lookup-source", "--units"}) {
+            if (options.hasOption(option)) {
+                fingerprint.append(' ').append(TransformManifest.hash(Paths.get(options.getOption(option, null))));
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    @Override
+    public DataModelFactory modelFactory(Template template) throws IOException {
+        CacheLookupFunction lookup = TemplateFieldScanner.references(template, "lookup") ? lookup() : null;
+        UnitConversionFunction convert = TemplateFieldScanner.references(template, "convert")
+                || TemplateFieldScanner.references(template, "convertAll") ? convert() : null;
+        FormatFunction format = TemplateFieldScanner.references(template, "format") ? this.format : null;
+        return content -> createDataModel(prefetch(lookup, prefetchField,
+                gson.fromJson(new String(content, StandardCharsets.UTF_8), Map.class)), lookup, convert, format);
+    }
+
+    @Override
+    public RecordModelFactory recordFactory() {
+        return record -> createDataModel(prefetch(lookup(), prefetchField,
+                gson.fromJson(record, Map.class)), lookup(), convert(), format);
+    }
+
+    @Override
+    public void beforeBatch(Template template) throws IOException {
+        if (prepass && TemplateFieldScanner.references(template, "lookup")) {
+            prepass(sourcePath, template, lookup());
         }
+    }
 
-        String templatePath = args[0];
-        String sourceJsonPath = args[1];
-        String targetJsonPath = args[2];
+    private static long parsePositive(TransformOptions options, String name, String defaultValue) {
+        String value = options.getOption(name, defaultValue);
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " requires a positive number: " + value);
+    }
 
+    private static CacheLookupFunction createLookup(TransformOptions options, long size, long ttl, long refresh)
+            throws IOException {
+        LookupSource source;
+        String sourcePath = options.getOption("--lookup-source", null);
+        if (sourcePath == null) {
+            source = LookupSource.builtIn();
+        } else {
+            long start = System.nanoTime();
+            source = LookupSource.open(Paths.get(sourcePath));
+            System.err.println("Loaded " + source.size() + " lookup entries from " + sourcePath + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        LatencyLookupSource store = null;
+        if (options.hasOption("--lookup-latency-ms")) {
+            store = new LatencyLookupSource(source, parsePositive(options, "--lookup-latency-ms", null));
+            source = store;
+        }
+        if (options.hasOption("--lookup-batch-ms")) {
+            source = new BatchingLookupSource(source, parsePositive(options, "--lookup-batch-ms", null),
+                    (int) parsePositive(options, "--lookup-batch-size", "256"));
+        }
+        CacheLookupFunction lookup = new CacheLookupFunction(source, size, ttl, refresh);
+        if (options.hasOption("--lookup-stats")) {
+            // Printed on every exit path, including System.exit after a batch and server shutdown
+            LatencyLookupSource latencyStore = store;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.err.println(lookup.stats());
+                if (latencyStore != null) {
+                    System.err.println(latencyStore.stats());
+                }
+            }));
+        }
+        return lookup;
+    }
+
+    // Load every key the template will look up for a batch in one bulk call before rendering:
+    // the paths passed to lookup(...) are read from each source, skipping everything else
+    private static void prepass(String sourcePath, Template template, CacheLookupFunction lookup)
+            throws IOException {
+        FieldTree calls;
         try {
-            // Read source JSON
-            String jsonContent = new String(Files.readAllBytes(Paths.get(sourceJsonPath)));
-            Gson gson = new Gson();
-            Map<String, Object> jsonData = gson.fromJson(jsonContent, Map.class);
-
-            // Configure FreeMarker
-            Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
-            File templateFile = new File(templatePath).getAbsoluteFile();
-            File templateDir = templateFile.getParentFile();
-            if (templateDir == null) {
-                templateDir = new File(".").getAbsoluteFile();
-            }
-            cfg.setDirectoryForTemplateLoading(templateDir);
-            cfg.setDefaultEncoding("UTF-8");
-            cfg.setNumberFormat("computer");
-
-            // Create data model with custom functions
-            Map<String, Object> dataModel = new HashMap<>();
-            dataModel.put("data", jsonData);
-            dataModel.put("lookup", new CacheLookupFunction());
-            dataModel.put("convert", new UnitConversionFunction());
-            dataModel.put("format", new FormatFunction());
-
-            // Load and process template
-            Template template = cfg.getTemplate(templateFile.getName());
-            StringWriter writer = new StringWriter();
-            template.process(dataModel, writer);
-
-            // Write output
-            Files.write(Paths.get(targetJsonPath), writer.toString().getBytes());
-            
-            System.out.println("Successfully transformed " + sourceJsonPath + " to " + targetJsonPath);
+            calls = TemplateFieldScanner.scanCalls(template, "lookup").key("data");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: skipping the lookup pre-pass, " + e.getMessage());
+            return;
+        }
+        if (calls == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Path> sources = SourceResolver.list(sourcePath, "*.json");
+        Set<String> keys = new LinkedHashSet<>();
+        for (Path source : sources) {
+            try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                collectStrings(SparseJsonReader.read(reader, calls), keys);
+            } catch (IOException e) {
+                // The batch reports the source when it gets to it
+            }
+        }
+        lookup.prefetch(keys);
+        System.err.println("Prefetched " + keys.size() + " lookup keys from " + sources.size() + " sources in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
 
-        } catch (IOException | TemplateException e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
+    private static void collectStrings(Object value, Set<String> keys) {
+        if (value instanceof String) {
+            keys.add((String) value);
+        } else if (value instanceof Map) {
+            ((Map<?, ?>) value).values().forEach(child -> collectStrings(child, keys));
+        } else if (value instanceof List) {
+            ((List<?>) value).forEach(child -> collectStrings(child, keys));
+        }
+    }
+
+    // Load the lookup keys held in every "field" member of a document with one bulk call
+    private static Map<String, Object> prefetch(CacheLookupFunction lookup, String field, Map<String, Object> jsonData)
+            throws IOException {
+        if (lookup != null && field != null && jsonData != null) {
+            Set<String> keys = new HashSet<>();
+            collectKeys(jsonData, field, keys);
+            if (!keys.isEmpty()) {
+                lookup.prefetch(keys);
+            }
         }
+        return jsonData;
     }
 
-    // Cache-based lookup function
+    private static void collectKeys(Object value, String field, Set<String> keys) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (field.equals(entry.getKey()) && entry.getValue() instanceof String) {
+                    keys.add((String) entry.getValue());
+                } else {
+                    collectKeys(entry.getValue(), field, keys);
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                collectKeys(element, field, keys);
+            }
+        }
+    }
+
+    // Create data model with custom functions; a null function is left out
+    static Map<String, Object> createDataModel(Map<String, Object> jsonData, CacheLookupFunction lookup,
+                                               UnitConversionFunction convert, FormatFunction format) {
+        Map<String, Object> dataModel = new HashMap<>();
+        dataModel.put("data", jsonData);
+        if (lookup != null) {
+            dataModel.put("lookup", TimedMethod.wrap("lookup", lookup));
+        }
+        if (convert != null) {
+            dataModel.put("convert", TimedMethod.wrap("convert", convert));
+            dataModel.put("convertAll", TimedMethod.wrap("convertAll", convert.convertAll()));
+        }
+        if (format != null) {
+            dataModel.put("format", TimedMethod.wrap("format", format));
+        }
+        return dataModel;
+    }
+
+    // Cache-based lookup function: a bounded, concurrent Guava cache in front of a LookupSource.
+    // Unknown keys resolve to "Unknown Device" and are cached like any other value. Concurrent
+    // misses for one key wait for a single load of it.
     static class CacheLookupFunction implements TemplateMethodModelEx {
+        static final String UNKNOWN = "Unknown Device";
+
         private final LoadingCache<String, String> cache;
 
         public CacheLookupFunction() {
-            this.cache = CacheBuilder.newBuilder()
-                .maximumSize(100)
-                .expireAfterWrite(10, TimeUnit.MINUTES)
-                .build(new CacheLoader<String, String>() {
-                    @Override
-                    public String load(String key) {
-                        // Simulate lookup logic
-                        return lookupValue(key);
+            this(LookupSource.builtIn(), 100, 600, 0);
+        }
+
+        // refreshSeconds > 0 reloads entries that old in the background on their next read,
+        // serving the previous value meanwhile
+        public CacheLookupFunction(LookupSource source, long maximumSize, long expireSeconds, long refreshSeconds) {
+            CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+                @Override
+                public String load(String key) throws IOException {
+                    String value = source.get(key);
+                    return value != null ? value : UNKNOWN;
+                }
+
+                @Override
+                public Map<String, String> loadAll(Iterable<? extends String> keys) throws IOException {
+                    List<String> wanted = new ArrayList<>();
+                    keys.forEach(wanted::add);
+                    Map<String, String> values = new HashMap<>(source.getAll(wanted));
+                    for (String key : wanted) {
+                        values.putIfAbsent(key, UNKNOWN);
                     }
+                    return values;
+                }
+            };
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats();
+            if (refreshSeconds > 0) {
+                builder.refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS);
+                ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "lookup-refresh");
+                    thread.setDaemon(true);
+                    return thread;
                 });
+                loader = CacheLoader.asyncReloading(loader, refresher);
+            }
+            this.cache = builder.build(loader);
         }
 
-        private String lookupValue(String key) {
-            // Example: device ID to name mapping
-            Map<String, String> deviceNames = new HashMap<>();
-            deviceNames.put("iot-sensor-001", "Temperature Sensor A");
-            deviceNames.put("iot-sensor-002", "Humidity Sensor B");
-            deviceNames.put("iot-sensor-003", "Pressure Sensor C");
-            return deviceNames.getOrDefault(key, "Unknown Device");
+        // Load every missing key with one getAll on the source
+        public void prefetch(Collection<String> keys) throws IOException {
+            try {
+                cache.getAll(keys);
+            } catch (ExecutionException e) {
+                throw new IOException("Lookup prefetch failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        public String stats() {
+            CacheStats stats = cache.stats();
+            return String.format(Locale.ROOT,
+                "Lookup cache: %d requests, %.1f%% hits, %d loads (%d failed, avg %.3f ms), %d evictions, %d entries",
+                stats.requestCount(), stats.hitRate() * 100, stats.loadCount(), stats.loadExceptionCount(),
+                stats.averageLoadPenalty() / 1_000_000, stats.evictionCount(), cache.size());
         }
 
         @Override
@@ -107,27 +373,129 @@ public class FunctionApp {
         }
     }
 
-    // Unit conversion function
+    // Unit conversion function: convert(value, fromUnit, toUnit) through a UnitRegistry.
+    // Unknown units, or units of different quantities, return the value unchanged.
     static class UnitConversionFunction implements TemplateMethodModelEx {
+        private final UnitRegistry units;
+        private final ConvertAllFunction convertAll;
+
+        public UnitConversionFunction() {
+            this(builtInUnits());
+        }
+
+        UnitConversionFunction(UnitRegistry units) {
+            this.units = units;
+            this.convertAll = new ConvertAllFunction(units);
+        }
+
+        private static UnitRegistry builtInUnits() {
+            try {
+                return UnitRegistry.builtIn();
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        // convertAll(sequence, fromUnit, toUnit) with the same registry
+        public ConvertAllFunction convertAll() {
+            return convertAll;
+        }
+
         @Override
         public Object exec(List arguments) throws TemplateModelException {
             if (arguments.size() != 3) {
                 throw new TemplateModelException("convert requires 3 arguments: value, fromUnit, toUnit");
             }
             
-            double value = Double.parseDouble(arguments.get(0).toString());
-            String fromUnit = arguments.get(1).toString();
-            String toUnit = arguments.get(2).toString();
-            
-            // Temperature conversion
-            if (fromUnit.equals("celsius") && toUnit.equals("fahrenheit")) {
-                return value * 9.0 / 5.0 + 32;
-            } else if (fromUnit.equals("fahrenheit") && toUnit.equals("celsius")) {
-                return (value - 32) * 5.0 / 9.0;
+            double value = number(arguments.get(0), "convert");
+            int pair = units.pair(units.id(string(arguments.get(1))), units.id(string(arguments.get(2))));
+            return new SimpleNumber(pair < 0 ? value : units.convert(pair, value));
+        }
+    }
+
+    // Bulk unit conversion: convertAll(values, fromUnit, toUnit) converts a whole
+    // sequence of numbers in one pass and returns a sequence of the results
+    static class ConvertAllFunction implements TemplateMethodModelEx {
+        private final UnitRegistry units;
+
+        ConvertAllFunction(UnitRegistry units) {
+            this.units = units;
+        }
+
+        @Override
+        public Object exec(List arguments) throws TemplateModelException {
+            if (arguments.size() != 3) {
+                throw new TemplateModelException("convertAll requires 3 arguments: values, fromUnit, toUnit");
             }
-            
-            return value;
+
+            double[] values = numbers(arguments.get(0));
+            int pair = units.pair(units.id(string(arguments.get(1))), units.id(string(arguments.get(2))));
+            if (pair >= 0) {
+                units.convertAll(pair, values, values.length);
+            }
+            return new NumberSequence(values);
         }
+
+        // Lists from the JSON data model are read as the Numbers they wrap, without wrapping each element
+        private static double[] numbers(Object argument) throws TemplateModelException {
+            if (argument instanceof WrapperTemplateModel
+                    && ((WrapperTemplateModel) argument).getWrappedObject() instanceof List) {
+                List<?> list = (List<?>) ((WrapperTemplateModel) argument).getWrappedObject();
+                double[] values = new double[list.size()];
+                for (int i = 0; i < values.length; i++) {
+                    Object element = list.get(i);
+                    if (!(element instanceof Number)) {
+                        throw new TemplateModelException("convertAll: element " + i + " is not a number: " + element);
+                    }
+                    values[i] = ((Number) element).doubleValue();
+                }
+                return values;
+            }
+            if (!(argument instanceof TemplateSequenceModel)) {
+                throw new TemplateModelException("convertAll: the first argument must be a sequence");
+            }
+            TemplateSequenceModel sequence = (TemplateSequenceModel) argument;
+            double[] values = new double[sequence.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = number(sequence.get(i), "convertAll");
+            }
+            return values;
+        }
+    }
+
+    private static final class NumberSequence implements TemplateSequenceModel {
+        private final double[] values;
+
+        NumberSequence(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            return index >= 0 && index < values.length ? new SimpleNumber(values[index]) : null;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+
+    // Numbers are read directly; anything else is parsed from its text, as before
+    private static double number(Object argument, String function) throws TemplateModelException {
+        if (argument instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) argument).getAsNumber().doubleValue();
+        }
+        try {
+            return Double.parseDouble(String.valueOf(argument));
+        } catch (NumberFormatException e) {
+            throw new TemplateModelException(function + ": not a number: " + argument, e);
+        }
+    }
+
+    private static String string(Object argument) throws TemplateModelException {
+        return argument instanceof TemplateScalarModel ? ((TemplateScalarModel) argument).getAsString()
+                : String.valueOf(argument);
     }
 
     // Formatting function
@@ -0,0 +1,222 @@
+package com.example;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-only in-memory index of a reference file. Keys are stored as one UTF-8
+// byte array sorted by key, with an offset per entry, and found by binary
+// search; values are deduplicated, since many keys share a name. For 2M
+// entries this is a few dozen MB instead of the several hundred a HashMap of
+// Strings takes.
+public final class IndexedLookupSource implements LookupSource {
+    private final byte[] keys;
+    private final int[] keyOffsets;
+    private final int[] valueIds;
+    private final String[] values;
+
+    private IndexedLookupSource(byte[] keys, int[] keyOffsets, int[] valueIds, String[] values) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.valueIds = valueIds;
+        this.values = values;
+    }
+
+    public static IndexedLookupSource of(Map<String, String> entries) {
+        Builder builder = new Builder();
+        entries.forEach(builder::add);
+        return builder.build();
+    }
+
+    // key,value per line; fields may be double-quoted, lines starting with # are comments.
+    // Further columns are ignored and there is no header row.
+    public static IndexedLookupSource fromCsv(Path file) throws IOException {
+        Builder builder = new Builder();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            List<String> fields = new ArrayList<>();
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                fields.clear();
+                if (!splitCsv(line, fields) || fields.size() < 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected key,value");
+                }
+                builder.add(fields.get(0), fields.get(1));
+            }
+        }
+        return builder.build();
+    }
+
+    // One JSON object whose members map keys to string (or number) values
+    public static IndexedLookupSource fromJson(Path file) throws IOException {
+        Builder builder = new Builder();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                    throw new IOException(file + ": value of " + key + " must be a string, not " + token);
+                }
+                builder.add(key, reader.nextString());
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException(file + ": expected an object of key/value members: " + e.getMessage(), e);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String get(String key) {
+        int entry = find(key.getBytes(StandardCharsets.UTF_8));
+        return entry < 0 ? null : values[valueIds[entry]];
+    }
+
+    @Override
+    public int size() {
+        return valueIds.length;
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = valueIds.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(keys, keyOffsets[mid], keyOffsets[mid + 1], key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Unsigned byte order, which is also code point order for UTF-8
+    private static int compare(byte[] a, int from, int to, byte[] b) {
+        int length = Math.min(to - from, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[from + i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return (to - from) - b.length;
+    }
+
+    // Split one CSV line into fields; false if a quoted field is not closed
+    private static boolean splitCsv(String line, List<String> fields) {
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        int n = line.length();
+        while (true) {
+            field.setLength(0);
+            if (i < n && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= n) {
+                        return false;
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < n && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                while (i < n && line.charAt(i) != ',') {
+                    i++;
+                }
+            } else {
+                int end = line.indexOf(',', i);
+                field.append(line, i, end < 0 ? n : end);
+                i = end < 0 ? n : end;
+            }
+            fields.add(field.toString());
+            if (i >= n) {
+                return true;
+            }
+            i++;
+        }
+    }
+
+    private static final class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<String, Integer> valueIds = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        void add(String key, String value) {
+            Integer valueId = valueIds.get(value);
+            if (valueId == null) {
+                valueId = values.size();
+                valueIds.put(value, valueId);
+                values.add(value);
+            }
+            entries.add(new Entry(key.getBytes(StandardCharsets.UTF_8), valueId, entries.size()));
+        }
+
+        IndexedLookupSource build() {
+            Entry[] sorted = entries.toArray(new Entry[0]);
+            // A key listed twice keeps its last value
+            Arrays.sort(sorted, (a, b) -> {
+                int cmp = compare(a.key, 0, a.key.length, b.key);
+                return cmp != 0 ? cmp : Integer.compare(b.order, a.order);
+            });
+            int count = 0;
+            int length = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || compare(sorted[i].key, 0, sorted[i].key.length, sorted[i - 1].key) != 0) {
+                    sorted[count++] = sorted[i];
+                    length += sorted[i].key.length;
+                }
+            }
+            byte[] keys = new byte[length];
+            int[] keyOffsets = new int[count + 1];
+            int[] entryValueIds = new int[count];
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] key = sorted[i].key;
+                System.arraycopy(key, 0, keys, offset, key.length);
+                keyOffsets[i] = offset;
+                entryValueIds[i] = sorted[i].valueId;
+                offset += key.length;
+            }
+            keyOffsets[count] = offset;
+            return new IndexedLookupSource(keys, keyOffsets, entryValueIds, values.toArray(new String[0]));
+        }
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final int valueId;
+        final int order;
+
+        Entry(byte[] key, int valueId, int order) {
+            this.key = key;
+            this.valueId = valueId;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stand-in for a remote store: every get or getAll costs one round trip of
+// fixed latency, and round trips and keys are counted. Used to try out
+// batching and prefetching locally.
+public final class LatencyLookupSource implements LookupSource {
+    private final LookupSource delegate;
+    private final long latencyMillis;
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong keys = new AtomicLong();
+
+    public LatencyLookupSource(LookupSource delegate, long latencyMillis) {
+        this.delegate = delegate;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        roundTrip(1);
+        return delegate.get(key);
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws IOException {
+        roundTrip(keys.size());
+        return delegate.getAll(keys);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    public String stats() {
+        return "Lookup store: " + roundTrips.get() + " round trips of " + latencyMillis + " ms for " + keys.get() + " keys";
+    }
+
+    private void roundTrip(int keyCount) throws IOException {
+        roundTrips.incrementAndGet();
+        keys.addAndGet(keyCount);
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during lookup");
+        }
+    }
+}
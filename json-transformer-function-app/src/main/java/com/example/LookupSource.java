@@ -0,0 +1,55 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Backing store for the lookup function. get returns null for an unknown key.
+// Implementations are shared by every worker thread, so they must be thread-safe.
+public interface LookupSource {
+    String get(String key) throws IOException;
+
+    // Values for the keys that exist; sources that can do better than one get per key override this
+    default Map<String, String> getAll(Collection<String> keys) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    // Number of entries, for the startup message
+    int size();
+
+    // Open a reference file by its extension:
+    //   .csv  key,value lines, loaded into an IndexedLookupSource
+    //   .json one object of "key": "value" members, loaded into an IndexedLookupSource
+    //   .tsv  key<TAB>value lines sorted by key, memory-mapped by a MappedLookupSource
+    static LookupSource open(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return IndexedLookupSource.fromCsv(file);
+        }
+        if (name.endsWith(".json")) {
+            return IndexedLookupSource.fromJson(file);
+        }
+        if (name.endsWith(".tsv")) {
+            return MappedLookupSource.open(file);
+        }
+        throw new IOException("Unsupported lookup source (expected .csv, .json or .tsv): " + file);
+    }
+
+    // The device names the lookup function knew before it had a source
+    static LookupSource builtIn() {
+        Map<String, String> deviceNames = new HashMap<>();
+        deviceNames.put("iot-sensor-001", "Temperature Sensor A");
+        deviceNames.put("iot-sensor-002", "Humidity Sensor B");
+        deviceNames.put("iot-sensor-003", "Pressure Sensor C");
+        return IndexedLookupSource.of(deviceNames);
+    }
+}
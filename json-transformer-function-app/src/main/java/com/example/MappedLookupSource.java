@@ -0,0 +1,149 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Embedded key-value file: key<TAB>value lines sorted by key (byte order, as
+// `LC_ALL=C sort` produces), memory-mapped and searched in place. Only the
+// line offsets live on the heap (4 bytes per entry), so very large registries
+// cost little memory and are shared with the page cache.
+public final class MappedLookupSource implements LookupSource {
+    private final MappedByteBuffer data;
+    private final int[] lineStarts;
+    private final int count;
+
+    private MappedLookupSource(MappedByteBuffer data, int[] lineStarts, int count) {
+        this.data = data;
+        this.lineStarts = lineStarts;
+        this.count = count;
+    }
+
+    public static MappedLookupSource open(Path file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Lookup file larger than 2 GB: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int[] lineStarts = new int[1024];
+        int count = 0;
+        int limit = data.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            if (end > start && data.get(start) != '#') {
+                if (count + 1 >= lineStarts.length) {
+                    lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+                }
+                lineStarts[count++] = start;
+            }
+            start = end + 1;
+        }
+
+        MappedLookupSource source = new MappedLookupSource(data, lineStarts, count);
+        for (int i = 0; i < count; i++) {
+            if (source.keyEnd(i) < 0) {
+                throw new IOException(file + ": line without a tab after the key at byte " + lineStarts[i]);
+            }
+            if (i > 0 && source.compareKeys(i - 1, i) >= 0) {
+                throw new IOException(file + ": keys are not sorted (or repeated) at byte " + lineStarts[i]
+                        + "; sort the file with LC_ALL=C sort");
+            }
+        }
+        return source;
+    }
+
+    @Override
+    public String get(String key) {
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, wanted);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return value(mid);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    // Index of the tab ending the key of a line, or -1
+    private int keyEnd(int line) {
+        int limit = data.limit();
+        for (int i = lineStarts[line]; i < limit; i++) {
+            byte b = data.get(i);
+            if (b == '\t') {
+                return i;
+            }
+            if (b == '\n') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int line, byte[] key) {
+        int from = lineStarts[line];
+        int length = keyEnd(line) - from;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (data.get(from + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private int compareKeys(int a, int b) {
+        int fromA = lineStarts[a];
+        int fromB = lineStarts[b];
+        int lengthA = keyEnd(a) - fromA;
+        int lengthB = keyEnd(b) - fromB;
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int cmp = (data.get(fromA + i) & 0xFF) - (data.get(fromB + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private String value(int line) {
+        int from = keyEnd(line) + 1;
+        int limit = data.limit();
+        int to = from;
+        while (to < limit && data.get(to) != '\n') {
+            to++;
+        }
+        if (to > from && data.get(to - 1) == '\r') {
+            to--;
+        }
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,224 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Linear units, loaded once from JSON and compiled into a conversion table
+// indexed by unit ID:
+//
+//   {"units": [
+//     {"name": "celsius", "aliases": ["c"], "quantity": "temperature", "factor": 1},
+//     {"name": "fahrenheit", "quantity": "temperature", "factor": "5/9", "offset": -32}]}
+//
+// A value in the quantity's base unit is (value + offset) * factor. Factors may
+// be written as fractions, and a conversion divides by the combined
+// denominator last, so 100 celsius is exactly 212 fahrenheit. Names are
+// case-insensitive. The built-in units are in /units.json; load(file) adds
+// to or replaces them.
+final class UnitRegistry {
+    private final Map<String, Integer> ids;
+    private final int count;
+    // Per (from, to) pair: result = (value + preOffset) * multiplier / divisor + postOffset;
+    // NaN multiplier for units of different quantities
+    private final double[] preOffsets;
+    private final double[] multipliers;
+    private final double[] divisors;
+    private final double[] postOffsets;
+
+    private UnitRegistry(Map<String, Integer> ids, List<Unit> units) {
+        this.ids = ids;
+        this.count = units.size();
+        int pairs = count * count;
+        this.preOffsets = new double[pairs];
+        this.multipliers = new double[pairs];
+        this.divisors = new double[pairs];
+        this.postOffsets = new double[pairs];
+        for (int from = 0; from < count; from++) {
+            for (int to = 0; to < count; to++) {
+                Unit a = units.get(from);
+                Unit b = units.get(to);
+                int pair = from * count + to;
+                if (!a.quantity.equals(b.quantity)) {
+                    multipliers[pair] = Double.NaN;
+                    continue;
+                }
+                multipliers[pair] = a.numerator * b.denominator;
+                divisors[pair] = a.denominator * b.numerator;
+                if (a.offset != b.offset) {
+                    // Equal offsets cancel; skipping them keeps same-unit conversions exact
+                    preOffsets[pair] = a.offset;
+                    postOffsets[pair] = -b.offset;
+                }
+            }
+        }
+    }
+
+    static UnitRegistry builtIn() throws IOException {
+        return load(null);
+    }
+
+    // Built-in units plus those in extraUnits (may be null)
+    static UnitRegistry load(Path extraUnits) throws IOException {
+        Map<String, Unit> byName = new HashMap<>();
+        List<Unit> units = new ArrayList<>();
+        try (InputStream in = UnitRegistry.class.getResourceAsStream("/units.json")) {
+            if (in == null) {
+                throw new IOException("Built-in units.json not found on the class path");
+            }
+            read(new InputStreamReader(in, StandardCharsets.UTF_8), "units.json", byName, units);
+        }
+        if (extraUnits != null) {
+            try (Reader reader = Files.newBufferedReader(extraUnits, StandardCharsets.UTF_8)) {
+                read(reader, extraUnits.toString(), byName, units);
+            }
+        }
+
+        // Interned IDs: every name and alias maps to the index of its unit
+        Map<String, Integer> ids = new HashMap<>();
+        List<Unit> live = new ArrayList<>();
+        for (Unit unit : units) {
+            if (byName.get(unit.name) != unit) {
+                continue;
+            }
+            int id = live.size();
+            live.add(unit);
+            ids.put(unit.name, id);
+        }
+        for (Unit unit : live) {
+            for (String alias : unit.aliases) {
+                ids.putIfAbsent(alias, ids.get(unit.name));
+            }
+        }
+        return new UnitRegistry(ids, live);
+    }
+
+    private static void read(Reader reader, String source, Map<String, Unit> byName, List<Unit> units)
+            throws IOException {
+        try {
+            JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+            JsonArray entries = root.getAsJsonArray("units");
+            if (entries == null) {
+                throw new IOException("Unit file " + source + " has no \"units\" array");
+            }
+            for (JsonElement element : entries) {
+                Unit unit = Unit.parse(element.getAsJsonObject());
+                byName.put(unit.name, unit);
+                units.add(unit);
+            }
+        } catch (JsonParseException | IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Invalid unit file " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Unit ID, or -1 for an unknown unit
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = ids.get(name.toLowerCase(Locale.ROOT));
+        }
+        return id == null ? -1 : id;
+    }
+
+    // Index of a conversion into the pair tables, or -1 if the units are unknown or of different quantities
+    int pair(int from, int to) {
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        int pair = from * count + to;
+        return Double.isNaN(multipliers[pair]) ? -1 : pair;
+    }
+
+    double convert(int pair, double value) {
+        return (value + preOffsets[pair]) * multipliers[pair] / divisors[pair] + postOffsets[pair];
+    }
+
+    // Converts in place; one pass of plain arithmetic the JIT can vectorize
+    void convertAll(int pair, double[] values, int length) {
+        double preOffset = preOffsets[pair];
+        double multiplier = multipliers[pair];
+        double divisor = divisors[pair];
+        double postOffset = postOffsets[pair];
+        for (int i = 0; i < length; i++) {
+            values[i] = (values[i] + preOffset) * multiplier / divisor + postOffset;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    private static final class Unit {
+        final String name;
+        final List<String> aliases;
+        final String quantity;
+        final double numerator;
+        final double denominator;
+        final double offset;
+
+        private Unit(String name, List<String> aliases, String quantity, double numerator, double denominator,
+                     double offset) {
+            this.name = name;
+            this.aliases = aliases;
+            this.quantity = quantity;
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.offset = offset;
+        }
+
+        static Unit parse(JsonObject object) {
+            String name = requireString(object, "name").toLowerCase(Locale.ROOT);
+            List<String> aliases = new ArrayList<>();
+            JsonArray aliasArray = object.getAsJsonArray("aliases");
+            if (aliasArray != null) {
+                for (JsonElement alias : aliasArray) {
+                    aliases.add(alias.getAsString().toLowerCase(Locale.ROOT));
+                }
+            }
+            String quantity = requireString(object, "quantity");
+            // "5/9" or a plain number
+            String factor = requireString(object, "factor");
+            double numerator;
+            double denominator = 1;
+            int slash = factor.indexOf('/');
+            try {
+                if (slash < 0) {
+                    numerator = Double.parseDouble(factor);
+                } else {
+                    numerator = Double.parseDouble(factor.substring(0, slash).trim());
+                    denominator = Double.parseDouble(factor.substring(slash + 1).trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("unit " + name + " has an invalid factor: " + factor);
+            }
+            if (!(numerator > 0) || !(denominator > 0) || Double.isInfinite(numerator) || Double.isInfinite(denominator)) {
+                throw new IllegalArgumentException("unit " + name + " needs a positive factor: " + factor);
+            }
+            JsonElement offset = object.get("offset");
+            return new Unit(name, aliases, quantity, numerator, denominator, offset == null ? 0 : offset.getAsDouble());
+        }
+
+        private static String requireString(JsonObject object, String name) {
+            JsonElement value = object.get(name);
+            if (value == null) {
+                throw new IllegalArgumentException("missing \"" + name + "\"");
+            }
+            return value.getAsString();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LookupSourceTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void indexedFindsEveryKeyOfUnsortedInput() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("zeta", "Z");
+        entries.put("alpha", "A");
+        entries.put("mu", "M");
+        entries.put("", "empty");
+        entries.put("älpha", "non-ASCII");
+        entries.put("alphabet", "A");
+
+        IndexedLookupSource source = IndexedLookupSource.of(entries);
+
+        assertEquals(entries.size(), source.size());
+        entries.forEach((key, value) -> assertEquals(value, source.get(key), key));
+        assertNull(source.get("alph"));
+        assertNull(source.get("omega"));
+        assertNull(source.get("zz"));
+    }
+
+    @Test
+    void indexedKeepsTheLastValueOfARepeatedKey() throws IOException {
+        Path csv = Files.writeString(dir.resolve("devices.csv"), "# devices\n"
+                + "b,first\n"
+                + "a,\"Sensor, A\"\n"
+                + "b,second\n"
+                + "\"c\"\"q\",quoted,ignored\n"
+                + "b,third\n");
+
+        LookupSource source = LookupSource.open(csv);
+
+        assertInstanceOf(IndexedLookupSource.class, source);
+        assertEquals(3, source.size());
+        assertEquals("Sensor, A", source.get("a"));
+        assertEquals("third", source.get("b"));
+        assertEquals("quoted", source.get("c\"q"));
+    }
+
+    @Test
+    void indexedReadsJsonObjects() throws IOException {
+        Path json = Files.writeString(dir.resolve("devices.json"), "{\"b\": \"B\", \"a\": 42, \"b\": \"again\"}");
+
+        LookupSource source = LookupSource.open(json);
+
+        assertEquals(2, source.size());
+        assertEquals("42", source.get("a"));
+        assertEquals("again", source.get("b"));
+    }
+
+    @Test
+    void indexedRejectsMalformedInput() throws IOException {
+        Path csv = Files.writeString(dir.resolve("bad.csv"), "a,1\nno-value\n");
+        Path json = Files.writeString(dir.resolve("bad.json"), "{\"a\": {\"nested\": 1}}");
+
+        IOException csvError = assertThrows(IOException.class, () -> LookupSource.open(csv));
+        assertTrue(csvError.getMessage().contains(":2:"), csvError.getMessage());
+        assertThrows(IOException.class, () -> LookupSource.open(json));
+    }
+
+    @Test
+    void getAllReturnsOnlyKnownKeys() throws IOException {
+        LookupSource source = LookupSource.builtIn();
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("iot-sensor-001", "Temperature Sensor A");
+        expected.put("iot-sensor-003", "Pressure Sensor C");
+        assertEquals(expected, source.getAll(Arrays.asList("iot-sensor-001", "unknown", "iot-sensor-003")));
+    }
+
+    @Test
+    void mappedFindsEveryKeyOfASortedFile() throws IOException {
+        Path tsv = Files.writeString(dir.resolve("devices.tsv"), "# sorted with LC_ALL=C sort\n"
+                + "a\tfirst\n"
+                + "ab\tsecond\r\n"
+                + "b\t\n"
+                + "z\tlast, with é\n"
+                + "ä\tnon-ASCII sorts after ASCII\n");
+
+        LookupSource source = LookupSource.open(tsv);
+
+        assertInstanceOf(MappedLookupSource.class, source);
+        assertEquals(5, source.size());
+        assertEquals("first", source.get("a"));
+        assertEquals("second", source.get("ab"));
+        assertEquals("", source.get("b"));
+        assertEquals("last, with é", source.get("z"));
+        assertEquals("non-ASCII sorts after ASCII", source.get("ä"));
+        assertNull(source.get("aa"));
+        assertNull(source.get(""));
+        assertNull(source.get("zz"));
+    }
+
+    @Test
+    void mappedRejectsUnsortedAndRepeatedKeys() throws IOException {
+        Path unsorted = Files.writeString(dir.resolve("unsorted.tsv"), "b\t1\na\t2\n");
+        Path repeated = Files.writeString(dir.resolve("repeated.tsv"), "a\t1\na\t2\n");
+        Path noTab = Files.writeString(dir.resolve("notab.tsv"), "a\t1\nb\n");
+
+        IOException unsortedError = assertThrows(IOException.class, () -> MappedLookupSource.open(unsorted));
+        assertTrue(unsortedError.getMessage().contains("not sorted"), unsortedError.getMessage());
+        assertThrows(IOException.class, () -> MappedLookupSource.open(repeated));
+        assertThrows(IOException.class, () -> MappedLookupSource.open(noTab));
+    }
+
+    @Test
+    void mappedEmptyFileFindsNothing() throws IOException {
+        Path empty = Files.writeString(dir.resolve("empty.tsv"), "");
+
+        LookupSource source = MappedLookupSource.open(empty);
+
+        assertEquals(0, source.size());
+        assertNull(source.get("a"));
+    }
+
+    @Test
+    void unknownExtensionIsRejected() throws IOException {
+        Path xml = Files.writeString(dir.resolve("devices.xml"), "<devices/>");
+
+        assertThrows(IOException.class, () -> LookupSource.open(xml));
+    }
+}
@@ -1,75 +1,118 @@
 package com.example;
 
+import com.example.core.DataModelFactory;
+import com.example.core.NdjsonTransformer.RecordModelFactory;
+import com.example.core.SourceAdapter;
+import com.example.core.TemplateFieldScanner;
+import com.example.core.TimedMethod;
+import com.example.core.TransformEngine;
+import com.example.core.TransformOptions;
 import com.google.gson.Gson;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.InvalidJsonException;
 import com.jayway.jsonpath.JsonPath;
-import freemarker.template.Configuration;
+import freemarker.core.Environment;
 import freemarker.template.Template;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class JsonPathApp {
-    public static void main(String[] args) {
-        if (args.length != 3) {
-            System.err.println("Usage: java -jar app.jar <template.ftl> <source.json> <target.json>");
-            System.exit(1);
-        }
+// JSON sources queried with jsonPath(...), as a TransformEngine plugin named "jsonpath"
+public class JsonPathApp implements SourceAdapter {
+    private final Gson gson = new Gson();
+    private boolean nativeModels;
 
-        String templatePath = args[0];
-        String sourceJsonPath = args[1];
-        String targetJsonPath = args[2];
+    public static void main(String[] args) {
+        TransformEngine.main(args, new JsonPathApp());
+    }
 
-        try {
-            // Read source JSON
-            String jsonContent = new String(Files.readAllBytes(Paths.get(sourceJsonPath)));
+    @Override
+    public String name() {
+        return "jsonpath";
+    }
 
-            // Configure FreeMarker
-            Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
-            File templateFile = new File(templatePath).getAbsoluteFile();
-            File templateDir = templateFile.getParentFile();
-            if (templateDir == null) {
-                templateDir = new File(".").getAbsoluteFile();
-            }
-            cfg.setDirectoryForTemplateLoading(templateDir);
-            cfg.setDefaultEncoding("UTF-8");
+    @Override
+    public String sourceName() {
+        return "source.json";
+    }
 
-            // Create data model with JSONPath function
-            Gson gson = new Gson();
-            Map<String, Object> dataModel = new HashMap<>();
-            dataModel.put("jsonPath", new JsonPathFunction(jsonContent, gson));
+    @Override
+    public String defaultGlob() {
+        return "*.json";
+    }
 
-            // Load and process template
-            Template template = cfg.getTemplate(templateFile.getName());
-            StringWriter writer = new StringWriter();
-            template.process(dataModel, writer);
+    @Override
+    public String[] optionSpecs() {
+        return new String[] {"--native-models"};
+    }
 
-            // Write output
-            Files.write(Paths.get(targetJsonPath), writer.toString().getBytes());
-            
-            System.out.println("Successfully transformed " + sourceJsonPath + " to " + targetJsonPath);
+    @Override
+    public void init(TransformOptions options) {
+        nativeModels = options.hasOption("--native-models");
+    }
 
-        } catch (IOException | TemplateException e) {
-            System.err.println("Error: " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
+    // Create data model with JSONPath function. A template that uses neither
+    // jsonPath nor jsonPathOut cannot read the document, so it is not parsed
+    // and json-path is never loaded.
+    @Override
+    public DataModelFactory modelFactory(Template template) {
+        if (!TemplateFieldScanner.references(template, "jsonPath")
+                && !TemplateFieldScanner.references(template, "jsonPathOut")) {
+            return content -> new HashMap<>();
         }
+        return content -> createDataModel(new String(content, StandardCharsets.UTF_8), gson, nativeModels);
     }
 
-    // Custom FreeMarker function for JSONPath queries
+    @Override
+    public RecordModelFactory recordFactory() {
+        return record -> createDataModel(gson.toJson(record), gson, nativeModels);
+    }
+
+    static Map<String, Object> createDataModel(String jsonContent, Gson gson, boolean nativeModels) throws IOException {
+        JsonPathFunction jsonPath = new JsonPathFunction(jsonContent, gson, nativeModels);
+        Map<String, Object> dataModel = new HashMap<>();
+        dataModel.put("jsonPath", TimedMethod.wrap("jsonPath", jsonPath));
+        dataModel.put("jsonPathOut", new JsonPathOutDirective(jsonPath));
+        return dataModel;
+    }
+
+    // Custom FreeMarker function for JSONPath queries.
+    // The document is parsed once per JsonPathFunction, compiled paths are shared
+    // across documents through json-path's bounded LRU cache (CacheProvider) and
+    // each expression is evaluated at most once per document.
+    // With nativeModels, lists and maps come back as sequence/hash models that
+    // still print as JSON; otherwise they are serialized to JSON strings.
+    // The memo maps are concurrent, since --fan-out renders one document through
+    // several templates at once.
     static class JsonPathFunction implements TemplateMethodModelEx {
-        private final String jsonContent;
+        private final DocumentContext document;
         private final Gson gson;
+        private final boolean nativeModels;
+        // Stands in for a null result, which the maps cannot hold
+        private static final Object NULL = new Object();
+
+        private final Map<String, Object> rawResults = new ConcurrentHashMap<>();
+        private final Map<String, Object> results = new ConcurrentHashMap<>();
 
-        public JsonPathFunction(String jsonContent, Gson gson) {
-            this.jsonContent = jsonContent;
+        public JsonPathFunction(String jsonContent, Gson gson, boolean nativeModels) throws IOException {
+            try {
+                this.document = JsonPath.parse(jsonContent);
+            } catch (InvalidJsonException e) {
+                throw new IOException("Invalid JSON: " + e.getMessage(), e);
+            }
             this.gson = gson;
+            this.nativeModels = nativeModels;
         }
 
         @Override
@@ -79,18 +122,61 @@ public class JsonPathApp {
             }
             
             String path = arguments.get(0).toString();
-            try {
-                Object result = JsonPath.read(jsonContent, path);
-                
+            Object cached = results.get(path);
+            if (cached != null) {
+                return cached == NULL ? null : cached;
+            }
+            Object result = read(path);
+            if (nativeModels) {
+                result = JsonPathModels.wrap(result, gson);
+            } else if (result instanceof List || result instanceof Map) {
                 // Convert collections and maps to JSON strings for FreeMarker
-                if (result instanceof List || result instanceof Map) {
-                    return gson.toJson(result);
-                }
-                
+                result = gson.toJson(result);
+            }
+            results.put(path, result == null ? NULL : result);
+            return result;
+        }
+
+        Object read(String path) throws TemplateModelException {
+            Object cached = rawResults.get(path);
+            if (cached != null) {
+                return cached == NULL ? null : cached;
+            }
+            try {
+                Object result = document.read(path);
+                rawResults.put(path, result == null ? NULL : result);
                 return result;
             } catch (Exception e) {
                 throw new TemplateModelException("JSONPath error: " + e.getMessage(), e);
             }
         }
+
+        Gson getGson() {
+            return gson;
+        }
+    }
+
+    // <@jsonPathOut path="$.sensors[*].value"/> writes the result as JSON directly
+    // to the template output, without building an intermediate String
+    static class JsonPathOutDirective implements TemplateDirectiveModel {
+        private final JsonPathFunction jsonPath;
+
+        public JsonPathOutDirective(JsonPathFunction jsonPath) {
+            this.jsonPath = jsonPath;
+        }
+
+        @Override
+        public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+                throws TemplateException, IOException {
+            Object path = params.get("path");
+            if (params.size() != 1 || !(path instanceof TemplateScalarModel)) {
+                throw new TemplateModelException("jsonPathOut requires exactly 1 parameter: path");
+            }
+            if (body != null) {
+                throw new TemplateModelException("jsonPathOut does not allow a body");
+            }
+            Object result = jsonPath.read(((TemplateScalarModel) path).getAsString());
+            JsonPathModels.writeJson(result, jsonPath.getGson(), env.getOut());
+        }
     }
 }
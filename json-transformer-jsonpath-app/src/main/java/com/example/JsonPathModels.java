@@ -0,0 +1,166 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// FreeMarker views over JSONPath results. Lists and maps are wrapped lazily,
+// element by element, so templates can <#list> or index into them without
+// re-parsing; when printed with ${...} they still render as JSON text.
+final class JsonPathModels {
+    private JsonPathModels() {
+    }
+
+    static TemplateModel wrap(Object value, Gson gson) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String) {
+            return new SimpleScalar((String) value);
+        }
+        if (value instanceof Number) {
+            return new SimpleNumber((Number) value);
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+        if (value instanceof List) {
+            return new ListModel((List<?>) value, gson);
+        }
+        if (value instanceof Map) {
+            return new MapModel((Map<?, ?>) value, gson);
+        }
+        return new SimpleScalar(value.toString());
+    }
+
+    // Serialize a raw JSONPath result straight into the template output
+    static void writeJson(Object value, Gson gson, Appendable out) throws IOException {
+        try {
+            gson.toJson(value, out);
+        } catch (JsonIOException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // Base for container results: serialized to JSON only if printed
+    private abstract static class JsonContainerModel implements TemplateScalarModel {
+        final Gson gson;
+        private String json;
+
+        JsonContainerModel(Gson gson) {
+            this.gson = gson;
+        }
+
+        abstract Object raw();
+
+        @Override
+        public String getAsString() {
+            if (json == null) {
+                json = gson.toJson(raw());
+            }
+            return json;
+        }
+    }
+
+    static final class ListModel extends JsonContainerModel implements TemplateSequenceModel {
+        private final List<?> list;
+
+        ListModel(List<?> list, Gson gson) {
+            super(gson);
+            this.list = list;
+        }
+
+        @Override
+        Object raw() {
+            return list;
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            return index >= 0 && index < list.size() ? wrap(list.get(index), gson) : null;
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+    }
+
+    static final class MapModel extends JsonContainerModel implements TemplateHashModelEx {
+        private final Map<?, ?> map;
+
+        MapModel(Map<?, ?> map, Gson gson) {
+            super(gson);
+            this.map = map;
+        }
+
+        @Override
+        Object raw() {
+            return map;
+        }
+
+        @Override
+        public TemplateModel get(String key) {
+            return wrap(map.get(key), gson);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return new WrappingCollection(map.keySet(), gson);
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return new WrappingCollection(map.values(), gson);
+        }
+    }
+
+    private static final class WrappingCollection implements TemplateCollectionModel {
+        private final Iterable<?> items;
+        private final Gson gson;
+
+        WrappingCollection(Iterable<?> items, Gson gson) {
+            this.items = items;
+            this.gson = gson;
+        }
+
+        @Override
+        public TemplateModelIterator iterator() {
+            Iterator<?> iterator = items.iterator();
+            return new TemplateModelIterator() {
+                @Override
+                public TemplateModel next() {
+                    return wrap(iterator.next(), gson);
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,42 @@
+#!/bin/bash
+# Start a transformer app tuned for short jobs:
+#   ./transform.sh <app|function-app|jsonpath-app|binary-app|bundle> [app arguments]
+#
+# - Maps the module's AppCDS archive (target/<module>.jsa, built by mvn -Pcds verify)
+#   when it exists, so FreeMarker, Gson and the app classes are loaded pre-parsed
+#   from a shared archive instead of the jar.
+# - A single transform or --fan-out also runs with only the C1 JIT and the serial
+#   collector. --batch, --server, --watch and --ndjson keep the JVM defaults, as
+#   they run long enough to profit from C2.
+# JAVA_OPTS is passed to java after these options, so it can override them.
+
+dir="$(cd "$(dirname "$0")" && pwd)"
+if [ $# -lt 1 ]; then
+    echo "Usage: $0 <app|function-app|jsonpath-app|binary-app|bundle> [app arguments]" >&2
+    exit 1
+fi
+module="json-transformer-$1"
+shift
+jar="$dir/$module/target/$module-1.0-SNAPSHOT.jar"
+if [ ! -f "$jar" ]; then
+    echo "$jar not found, build it with mvn package" >&2
+    exit 1
+fi
+
+options=()
+archive="$dir/$module/target/$module.jsa"
+if [ -f "$archive" ]; then
+    options+=("-XX:SharedArchiveFile=$archive" "-Xshare:auto")
+fi
+short=true
+for arg in "$@"; do
+    case "$arg" in
+        --batch|--server|--watch|--ndjson) short=false ;;
+    esac
+done
+if [ "$short" = true ]; then
+    options+=("-XX:TieredStopAtLevel=1" "-XX:+UseSerialGC")
+fi
+
+# JAVA_OPTS is split into words on purpose
+exec java "${options[@]}" $JAVA_OPTS -jar "$jar" "$@"